@@ -1,36 +1,63 @@
 package com.example.reservationservice;
 
+import com.example.r2dbc.pool.PooledConnectionFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
 import io.r2dbc.postgresql.PostgresqlConnectionConfiguration;
 import io.r2dbc.postgresql.PostgresqlConnectionFactory;
 import io.r2dbc.spi.ConnectionFactory;
+import javax.annotation.PreDestroy;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.event.EventListener;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.r2dbc.config.AbstractR2dbcConfiguration;
+import org.springframework.data.r2dbc.function.DatabaseClient;
 import org.springframework.data.r2dbc.repository.config.EnableR2dbcRepositories;
+import org.springframework.data.r2dbc.repository.query.Query;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import org.springframework.http.MediaType;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.stereotype.Component;
 import org.springframework.stereotype.Controller;
+import org.springframework.util.Assert;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.server.RequestPredicate;
 import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 import org.springframework.web.reactive.handler.SimpleUrlHandlerMapping;
 import org.springframework.web.reactive.socket.WebSocketHandler;
 import org.springframework.web.reactive.socket.server.support.WebSocketHandlerAdapter;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 
+import static org.springframework.web.reactive.function.server.RequestPredicates.queryParam;
 import static org.springframework.web.reactive.function.server.RouterFunctions.route;
 import static org.springframework.web.reactive.function.server.ServerResponse.ok;
 
@@ -42,13 +69,205 @@ public class ReservationServiceApplication {
 	}
 
 	@Bean
-	RouterFunction<ServerResponse> routes(ReservationRepository rr) {
+	RouterFunction<ServerResponse> routes(ReservationExport export, ReservationPages pages) {
 		return route()
-			.GET("/reservations", serverRequest -> ok().body(rr.findAll(), Reservation.class))
+			.GET("/reservations", ReservationPages.REQUESTED, pages::page)
+			.GET("/reservations", export::export)
 			.build();
 	}
 }
 
+/**
+	* Serves {@code GET /reservations?limit=&after=}: up to {@code limit} reservations (never more than
+	* {@code max-limit}) whose id is greater than {@code after}, in id order. When a page comes back full, the
+	* {@code X-Next-Cursor} header holds the {@code after} value for the next one.
+	*/
+@Component
+class ReservationPages {
+
+	static final String NEXT_CURSOR = "X-Next-Cursor";
+
+	static final RequestPredicate REQUESTED = queryParam("limit", limit -> true).or(queryParam("after", after -> true));
+
+	private final ReservationRepository reservationRepository;
+	private final int maxLimit;
+
+	ReservationPages(ReservationRepository reservationRepository,
+		@Value("${reservations.page.max-limit:1000}") int maxLimit) {
+		this.reservationRepository = reservationRepository;
+		this.maxLimit = maxLimit;
+	}
+
+	Mono<ServerResponse> page(ServerRequest request) {
+		int limit;
+		int after;
+		try {
+			limit = request.queryParam("limit").map(Integer::parseInt).orElse(this.maxLimit);
+			after = request.queryParam("after").map(Integer::parseInt).orElse(Integer.MIN_VALUE);
+		}
+		catch (NumberFormatException e) {
+			return ServerResponse.badRequest().syncBody("limit and after must be numbers");
+		}
+		if (limit < 1) {
+			return ServerResponse.badRequest().syncBody("limit must be at least 1");
+		}
+		int size = Math.min(limit, this.maxLimit);
+		return this.reservationRepository
+			.findPage(after, size)
+			.collectList()
+			.flatMap(page -> {
+				ServerResponse.BodyBuilder response = ok();
+				if (page.size() == size) {
+					response.header(NEXT_CURSOR, String.valueOf(page.get(page.size() - 1).getId()));
+				}
+				return response.syncBody(page);
+			});
+	}
+}
+
+/**
+	* Serves {@code GET /reservations} as a JSON array that is written one reservation at a time, as fast as the
+	* client reads it. Jackson's encoder collects a {@code Flux} into a list before writing plain JSON, which would
+	* hold the whole table in memory for the length of a slow download. The rows come from keyset pages of at most
+	* {@code fetch-size} rows, each sized from the client's outstanding demand, and every page borrows a pooled
+	* connection only while it's being read, so a stalled download holds neither rows nor a connection.
+	*/
+@Component
+class ReservationExport {
+
+	private final ReservationCursor cursor;
+	private final ObjectMapper objectMapper;
+	private final DataBufferFactory buffers = new DefaultDataBufferFactory();
+	private final int fetchSize;
+
+	ReservationExport(ReservationCursor cursor, ObjectMapper objectMapper,
+		@Value("${reservations.export.fetch-size:256}") int fetchSize) {
+		Assert.isTrue(fetchSize > 0, "reservations.export.fetch-size must be at least 1");
+		this.cursor = cursor;
+		this.objectMapper = objectMapper;
+		this.fetchSize = fetchSize;
+	}
+
+	Mono<ServerResponse> export(ServerRequest request) {
+		Flux<DataBuffer> reservations = this.cursor.stream(this.fetchSize)
+			.index()
+			.map(reservation -> this.json(reservation.getT1() == 0 ? "" : ",", reservation.getT2()));
+		Flux<DataBuffer> array = Flux.concat(Mono.fromSupplier(() -> this.text("[")), reservations, Mono.fromSupplier(() -> this.text("]")));
+		return ok().contentType(MediaType.APPLICATION_JSON).body(BodyInserters.fromDataBuffers(array));
+	}
+
+	private DataBuffer json(String separator, Reservation reservation) {
+		try {
+			byte[] json = this.objectMapper.writeValueAsBytes(reservation);
+			return this.buffers.allocateBuffer(separator.length() + json.length)
+				.write(separator.getBytes(StandardCharsets.UTF_8))
+				.write(json);
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private DataBuffer text(String text) {
+		return this.buffers.wrap(text.getBytes(StandardCharsets.UTF_8));
+	}
+}
+
+/**
+	* Reads the reservation table as a series of bounded keyset queries ({@code id > ? order by id limit ?}). Nothing is
+	* read until the subscriber asks for data, and each page is sized from the subscriber's outstanding demand, capped at
+	* {@code fetchSize}, so a slow subscriber never has more than one page in flight.
+	*/
+@Component
+class ReservationCursor {
+
+	private final DatabaseClient databaseClient;
+
+	ReservationCursor(DatabaseClient databaseClient) {
+		this.databaseClient = databaseClient;
+	}
+
+	Flux<Reservation> stream(int fetchSize) {
+		return Flux.create(sink -> new KeysetCursor(fetchSize, sink).start());
+	}
+
+	/**
+		* Reads one page: up to {@code fetchSize} reservations after {@code after} (or from the start when it's
+		* {@code null}), in id order.
+		*/
+	Flux<Reservation> fetch(Integer after, int fetchSize) {
+		DatabaseClient.GenericExecuteSpec spec = after == null
+			? this.databaseClient.execute().sql("select * from reservation order by id limit $1").bind(0, fetchSize)
+			: this.databaseClient.execute().sql("select * from reservation where id > $1 order by id limit $2")
+				.bind(0, after)
+				.bind(1, fetchSize);
+		return spec.as(Reservation.class).fetch().all();
+	}
+
+	private class KeysetCursor {
+
+		private final FluxSink<Reservation> sink;
+		private final int fetchSize;
+		private final AtomicInteger wip = new AtomicInteger();
+		private volatile boolean fetching;
+		private volatile Integer after;
+		private volatile Disposable page = Disposables.single();
+
+		KeysetCursor(int fetchSize, FluxSink<Reservation> sink) {
+			Assert.isTrue(fetchSize > 0, "the fetch size must be at least 1");
+			this.sink = sink;
+			this.fetchSize = fetchSize;
+		}
+
+		void start() {
+			this.sink.onDispose(() -> this.page.dispose());
+			this.sink.onRequest(n -> this.drain());
+		}
+
+		/**
+			* Starts the next page when there is demand and no page in flight. Demand arrives on the subscriber's thread
+			* and pages complete on the database's, possibly while this very call is still starting them, so only one
+			* thread runs the loop at a time and it goes round again for every call that came in meanwhile. That also
+			* keeps pages that complete straight away from recursing into each other.
+			*/
+		private void drain() {
+			if (this.wip.getAndIncrement() != 0) {
+				return;
+			}
+			int missed = 1;
+			do {
+				long requested = this.sink.requestedFromDownstream();
+				if (!this.fetching && requested > 0 && !this.sink.isCancelled()) {
+					this.fetching = true;
+					this.fetchPage((int) Math.min(requested, this.fetchSize));
+				}
+				missed = this.wip.addAndGet(-missed);
+			}
+			while (missed != 0);
+		}
+
+		private void fetchPage(int pageSize) {
+			AtomicInteger fetched = new AtomicInteger();
+			this.page = fetch(this.after, pageSize)
+				.subscribe(reservation -> {
+						fetched.incrementAndGet();
+						this.after = reservation.getId();
+						this.sink.next(reservation);
+					},
+					this.sink::error,
+					() -> {
+						if (fetched.get() < pageSize) {
+							this.sink.complete();
+						}
+						else {
+							this.fetching = false;
+							this.drain();
+						}
+					});
+		}
+	}
+}
+
 @Configuration
 class WebsocketConfiguration {
 
@@ -91,9 +310,15 @@ class TimedGreetingsProducer {
 class SampleDataInitializer {
 
 	private final ReservationRepository reservationRepository;
+	private final int batchSize;
+	private final int parallelism;
 
-	SampleDataInitializer(ReservationRepository reservationRepository) {
+	SampleDataInitializer(ReservationRepository reservationRepository,
+		@Value("${reservations.seed.batch-size:1000}") int batchSize,
+		@Value("${reservations.seed.parallelism:4}") int parallelism) {
 		this.reservationRepository = reservationRepository;
+		this.batchSize = batchSize;
+		this.parallelism = parallelism;
 	}
 
 	@EventListener(ApplicationReadyEvent.class)
@@ -101,12 +326,11 @@ class SampleDataInitializer {
 
 		var names = Flux
 			.just("Josh", "Madhura", "Dr. Syer", "Cornelia", "Stephane", "Neven", "Olga", "Violetta")
-			.map(name -> new Reservation(null, name))
-			.flatMap(this.reservationRepository::save);
+			.map(name -> new Reservation(null, name));
 
 		this.reservationRepository
 			.deleteAll()
-			.thenMany(names)
+			.then(this.reservationRepository.insertAll(names, this.batchSize, this.parallelism))
 			.thenMany(this.reservationRepository.findAll())
 			.subscribe(System.out::println);
 	}
@@ -116,9 +340,17 @@ class SampleDataInitializer {
 @EnableR2dbcRepositories
 class R2dbcConfig extends AbstractR2dbcConfiguration {
 
-	@Override
-	public ConnectionFactory connectionFactory() {
-		return new PostgresqlConnectionFactory(
+	private final PooledConnectionFactory pool;
+
+	R2dbcConfig(ObjectProvider<MeterRegistry> registry,
+		@Value("${reservations.r2dbc.pool.min-size:2}") int minSize,
+		@Value("${reservations.r2dbc.pool.max-size:10}") int maxSize,
+		@Value("${reservations.r2dbc.pool.acquire-timeout:5s}") Duration acquireTimeout,
+		@Value("${reservations.r2dbc.pool.validation-query:select 1}") String validationQuery,
+		@Value("${reservations.r2dbc.pool.validate-after-idle:1s}") Duration validateAfterIdle,
+		@Value("${reservations.r2dbc.pool.max-idle-time:10m}") Duration maxIdleTime,
+		@Value("${reservations.r2dbc.pool.eviction-interval:30s}") Duration evictionInterval) {
+		PostgresqlConnectionFactory pgcf = new PostgresqlConnectionFactory(
 			PostgresqlConnectionConfiguration
 				.builder()
 				.password("0rd3rs")
@@ -128,6 +360,18 @@ class R2dbcConfig extends AbstractR2dbcConfiguration {
 				.applicationName("orders")
 				.build()
 		);
+		this.pool = new PooledConnectionFactory(pgcf, registry.getIfAvailable(() -> Metrics.globalRegistry), "reservations",
+			minSize, maxSize, acquireTimeout, validationQuery, validateAfterIdle, maxIdleTime, evictionInterval);
+	}
+
+	@Override
+	public ConnectionFactory connectionFactory() {
+		return this.pool;
+	}
+
+	@PreDestroy
+	void close() {
+		this.pool.dispose();
 	}
 }
 
@@ -163,7 +407,82 @@ class GreetingsResponse {
 	private String greeting;
 }
 
-interface ReservationRepository extends ReactiveCrudRepository<Reservation, Integer> {
+interface ReservationRepository extends ReactiveCrudRepository<Reservation, Integer>, ReservationBulkOperations {
+
+	@Query("select * from reservation where id > $1 order by id limit $2")
+	Flux<Reservation> findPage(int after, int limit);
+}
+
+/**
+	* Bulk writes for {@link ReservationRepository}. {@code save} costs a statement and a round trip per row,
+	* so seeding writes multi-row {@code INSERT}s instead.
+	*/
+interface ReservationBulkOperations {
+
+	/**
+		* PostgreSQL accepts at most {@value} bind parameters per statement: the count is an unsigned 16-bit field of
+		* the Bind message.
+		*/
+	int MAX_BIND_PARAMETERS = 65535;
+
+	/**
+		* Each row of {@link #insertBatch} binds only the name.
+		*/
+	int BIND_PARAMETERS_PER_ROW = 1;
+
+	int MAX_BATCH_SIZE = MAX_BIND_PARAMETERS / BIND_PARAMETERS_PER_ROW;
+
+	/**
+		* Inserts the batch as one statement and returns the generated ids in the order of the batch.
+		*/
+	Mono<List<Integer>> insertBatch(List<Reservation> batch);
+
+	/**
+		* Inserts the reservations in batches of {@code batchSize}, with up to {@code parallelism} batches in flight,
+		* and returns the number of rows written.
+		*/
+	Mono<Long> insertAll(Flux<Reservation> reservations, int batchSize, int parallelism);
+}
+
+class ReservationBulkOperationsImpl implements ReservationBulkOperations {
+
+	private final DatabaseClient databaseClient;
+
+	ReservationBulkOperationsImpl(DatabaseClient databaseClient) {
+		this.databaseClient = databaseClient;
+	}
+
+	@Override
+	public Mono<List<Integer>> insertBatch(List<Reservation> batch) {
+		Assert.isTrue(batch.size() <= MAX_BATCH_SIZE, "a batch holds at most " + MAX_BATCH_SIZE + " reservations");
+		if (batch.isEmpty()) {
+			return Mono.just(Collections.emptyList());
+		}
+		StringBuilder sql = new StringBuilder("insert into reservation (name) values ");
+		for (int i = 0; i < batch.size(); i++) {
+			sql.append(i == 0 ? "" : ", ").append("($").append(i + 1).append(')');
+		}
+		sql.append(" returning id");
+
+		DatabaseClient.GenericExecuteSpec spec = this.databaseClient.execute().sql(sql.toString());
+		for (int i = 0; i < batch.size(); i++) {
+			String name = batch.get(i).getName();
+			spec = name == null ? spec.bindNull(i, String.class) : spec.bind(i, name);
+		}
+		return spec
+			.map((row, rowMetadata) -> row.get("id", Integer.class))
+			.all()
+			.collectList();
+	}
+
+	@Override
+	public Mono<Long> insertAll(Flux<Reservation> reservations, int batchSize, int parallelism) {
+		Assert.isTrue(batchSize > 0 && batchSize <= MAX_BATCH_SIZE, "the batch size must be between 1 and " + MAX_BATCH_SIZE);
+		return reservations
+			.buffer(batchSize)
+			.flatMap(batch -> this.insertBatch(batch).map(List::size), parallelism)
+			.reduce(0L, (rows, written) -> rows + written);
+	}
 }
 
 @Data
@@ -173,4 +492,4 @@ class Reservation {
 	@Id
 	private Integer id;
 	private String name;
-}
\ No newline at end of file
+}
@@ -0,0 +1,109 @@
+package com.example.reservationservice;
+
+import org.junit.Test;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+	* Pages through {@code rows} reservations (ids 1 to {@code rows}) served from memory instead of SQL, optionally
+	* after a delay, noting the {@code after} and the size of every page the cursor asks for.
+	*/
+public class ReservationCursorTests {
+
+	private final List<String> pages = new CopyOnWriteArrayList<>();
+	private volatile int rows = 10;
+	private volatile Duration latency = Duration.ZERO;
+
+	private final ReservationCursor cursor = new ReservationCursor(null) {
+
+		@Override
+		Flux<Reservation> fetch(Integer after, int fetchSize) {
+			pages.add(after + ":" + fetchSize);
+			int first = after == null ? 1 : after + 1;
+			Flux<Reservation> page = Flux.range(first, Math.max(0, Math.min(fetchSize, rows - first + 1)))
+				.map(id -> new Reservation(id, "reservation-" + id));
+			return latency.isZero() ? page : page.delaySubscription(latency);
+		}
+	};
+
+	@Test
+	public void queriesNothingWithoutDemandAndSizesPagesFromIt() {
+		StepVerifier.create(this.cursor.stream(4), 0)
+			.expectSubscription()
+			.then(() -> assertThat(this.pages).isEmpty())
+			.thenRequest(3)
+			.expectNextCount(3)
+			.then(() -> assertThat(this.pages).containsExactly("null:3"))
+			.thenRequest(10)
+			.expectNextCount(7)
+			.verifyComplete();
+		assertThat(this.pages).containsExactly("null:3", "3:4", "7:4");
+	}
+
+	@Test
+	public void demandFromInsideOnNextStartsTheNextPageAndAnEmptyPageCompletes() {
+		List<Integer> received = new CopyOnWriteArrayList<>();
+		BaseSubscriber<Reservation> oneAtATime = new BaseSubscriber<Reservation>() {
+
+			@Override
+			protected void hookOnSubscribe(Subscription subscription) {
+				request(1);
+			}
+
+			@Override
+			protected void hookOnNext(Reservation reservation) {
+				received.add(reservation.getId());
+				request(1);
+			}
+		};
+		this.rows = 3;
+		this.cursor.stream(4).subscribe(oneAtATime);
+		assertThat(received).containsExactly(1, 2, 3);
+		assertThat(this.pages).containsExactly("null:1", "1:1", "2:1", "3:1");
+		assertThat(oneAtATime.isDisposed()).isTrue();
+	}
+
+	@Test
+	public void pagesThatCompleteStraightAwayDoNotRecurse() {
+		this.rows = 20_000;
+		StepVerifier.create(this.cursor.stream(1).limitRate(1))
+			.expectNextCount(20_000)
+			.verifyComplete();
+		assertThat(this.pages).hasSize(20_001);
+	}
+
+	@Test
+	public void demandThatArrivesDuringAPageWaitsForIt() throws InterruptedException {
+		this.latency = Duration.ofMillis(50);
+		List<Reservation> received = new CopyOnWriteArrayList<>();
+		BaseSubscriber<Reservation> subscriber = new BaseSubscriber<Reservation>() {
+
+			@Override
+			protected void hookOnSubscribe(Subscription subscription) {
+			}
+
+			@Override
+			protected void hookOnNext(Reservation reservation) {
+				received.add(reservation);
+			}
+		};
+		this.cursor.stream(4).subscribe(subscriber);
+		subscriber.request(2);
+		subscriber.request(2);
+		long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+		while (received.size() < 4) {
+			assertThat(System.nanoTime()).as("waited too long for the second page").isLessThan(deadline);
+			Thread.sleep(5);
+		}
+		subscriber.dispose();
+		assertThat(this.pages).containsExactly("null:2", "2:2");
+	}
+}
@@ -0,0 +1,121 @@
+package com.example.rsocketclient;
+
+import io.netty.util.ReferenceCountUtil;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import lombok.extern.log4j.Log4j2;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+	* An {@link RSocket} that connects on first use rather than when it is created, shares that one connection
+	* between every caller, and connects again (with exponential backoff) once the connection closes.
+	* The application can therefore start while the server is still down. Every payload handed to a request that
+	* can't connect is released.
+	* <p>
+	* online-training's reservation-client reconnects the same way in {@code ReservationConnection}, but it is built
+	* on rsocket 0.11 and this module on the 0.12 line Spring Boot 2.2 brings in, so the two don't share code.
+	*/
+@Log4j2
+class ReconnectingRSocket extends AbstractRSocket {
+
+	private final Mono<RSocket> connect;
+	private final AtomicReference<Mono<RSocket>> current = new AtomicReference<>();
+
+	ReconnectingRSocket(Mono<RSocket> connect) {
+		this.connect = connect;
+	}
+
+	Mono<RSocket> rSocket() {
+		return Mono
+			.defer(() -> {
+				if (this.isDisposed()) {
+					return Mono.error(new IllegalStateException("the RSocket has been disposed"));
+				}
+				Mono<RSocket> cached = this.current.get();
+				if (cached != null) {
+					return cached;
+				}
+				Mono<RSocket> fresh = this.connect
+					.doOnNext(this::resetOnClose)
+					.doOnError(e -> this.current.set(null))
+					.cache();
+				return this.current.compareAndSet(null, fresh) ? fresh : this.current.get();
+			})
+			.flatMap(rs -> {
+				if (rs.isDisposed()) {
+					this.current.set(null);
+					return this.rSocket();
+				}
+				return Mono.just(rs);
+			});
+	}
+
+	private void resetOnClose(RSocket rs) {
+		rs.onClose()
+			.doFinally(signal -> {
+				log.info("greetings connection closed, reconnecting on next use");
+				this.current.set(null);
+			})
+			.subscribe();
+	}
+
+	@Override
+	public Mono<Void> fireAndForget(Payload payload) {
+		return this.rSocket()
+			.doOnError(e -> ReferenceCountUtil.safeRelease(payload))
+			.flatMap(rs -> rs.fireAndForget(payload));
+	}
+
+	@Override
+	public Mono<Payload> requestResponse(Payload payload) {
+		return this.rSocket()
+			.doOnError(e -> ReferenceCountUtil.safeRelease(payload))
+			.flatMap(rs -> rs.requestResponse(payload));
+	}
+
+	@Override
+	public Flux<Payload> requestStream(Payload payload) {
+		return this.rSocket()
+			.doOnError(e -> ReferenceCountUtil.safeRelease(payload))
+			.flatMapMany(rs -> rs.requestStream(payload));
+	}
+
+	/**
+		* If connecting fails, the payloads that {@code payloads} has ready are released and it is then cancelled,
+		* since no connection will ever take ownership of them.
+		*/
+	@Override
+	public Flux<Payload> requestChannel(Publisher<Payload> payloads) {
+		return this.rSocket()
+			.doOnError(e -> Flux.from(payloads).subscribe(ReferenceCountUtil::safeRelease, error -> {
+			}).dispose())
+			.flatMapMany(rs -> rs.requestChannel(payloads));
+	}
+
+	@Override
+	public Mono<Void> metadataPush(Payload payload) {
+		return this.rSocket()
+			.doOnError(e -> ReferenceCountUtil.safeRelease(payload))
+			.flatMap(rs -> rs.metadataPush(payload));
+	}
+
+	@Override
+	public double availability() {
+		return this.isDisposed() ? 0.0 : 1.0;
+	}
+
+	@Override
+	public void dispose() {
+		Mono<RSocket> cached = this.current.getAndSet(null);
+		if (cached != null) {
+			cached.subscribe(RSocket::dispose, e -> {
+			});
+		}
+		super.dispose();
+	}
+}
@@ -7,8 +7,13 @@ import io.rsocket.transport.netty.client.TcpClientTransport;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.MediaType;
@@ -19,6 +24,9 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
 
 @SpringBootApplication
 public class RsocketClientApplication {
@@ -68,21 +76,70 @@ class GreetingsClientRestController {
 @Configuration
 class RSocketConfig {
 
-
 	@Bean
-	RSocketRequester requester(RSocketStrategies rSocketStrategies) {
+	RSocketRequester requester(RSocketStrategies rSocketStrategies, RSocket rSocket) {
 		return RSocketRequester
-			.create(this.rSocket(), MimeTypeUtils.APPLICATION_JSON, rSocketStrategies);
+			.create(rSocket, MimeTypeUtils.APPLICATION_JSON, rSocketStrategies);
 	}
 
-	@Bean
-	RSocket rSocket() {
-		return RSocketFactory
+	@Bean(destroyMethod = "dispose")
+	ReconnectingRSocket rSocket(
+		@Value("${greetings.client.connect.max-attempts:10}") int maxAttempts,
+		@Value("${greetings.client.connect.first-backoff:100ms}") Duration firstBackoff,
+		@Value("${greetings.client.connect.max-backoff:10s}") Duration maxBackoff) {
+		Mono<RSocket> connect = RSocketFactory
 			.connect()
 			.frameDecoder(PayloadDecoder.ZERO_COPY)
 			.dataMimeType(MimeTypeUtils.APPLICATION_JSON_VALUE)
 			.transport(TcpClientTransport.create(7000))
 			.start()
-			.block();
+			.retryBackoff(maxAttempts, firstBackoff, maxBackoff);
+		return new ReconnectingRSocket(connect);
+	}
+
+	@Bean
+	@ConditionalOnProperty(name = "greetings.client.warm-up.enabled", havingValue = "true")
+	ApplicationRunner warmUp(RSocketRequester requester,
+		@Value("${greetings.client.warm-up.requests:3}") int requests,
+		@Value("${greetings.client.warm-up.timeout:5s}") Duration timeout) {
+		return new GreetingsWarmUp(requester, requests, timeout);
+	}
+}
+
+/**
+	* Connects and sends a few {@code greetings} requests before the application reports that it is ready,
+	* so that the first real request doesn't pay for the TCP and RSocket setup or for a cold server. A warm-up
+	* that fails or times out is logged and otherwise ignored.
+	*/
+@Log4j2
+class GreetingsWarmUp implements ApplicationRunner {
+
+	private final RSocketRequester requester;
+	private final int requests;
+	private final Duration timeout;
+
+	GreetingsWarmUp(RSocketRequester requester, int requests, Duration timeout) {
+		this.requester = requester;
+		this.requests = requests;
+		this.timeout = timeout;
+	}
+
+	@Override
+	public void run(ApplicationArguments args) {
+		try {
+			Long greetings = Flux
+				.range(0, this.requests)
+				.concatMap(i -> this.requester
+					.route("greetings")
+					.data(new GreetingsRequest("warm-up"))
+					.retrieveFlux(GreetingsResponse.class)
+					.take(1))
+				.count()
+				.block(this.timeout);
+			log.info("warmed up the greetings connection with " + greetings + " requests");
+		}
+		catch (RuntimeException e) {
+			log.warn("couldn't warm up the greetings connection", e);
+		}
 	}
-}
\ No newline at end of file
+}
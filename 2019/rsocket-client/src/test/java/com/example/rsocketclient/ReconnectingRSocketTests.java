@@ -0,0 +1,102 @@
+package com.example.rsocketclient;
+
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.util.ByteBufPayload;
+import io.rsocket.util.DefaultPayload;
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.net.ConnectException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+	* Connects to in-memory servers that answer a request with their own name, numbered in the order they were
+	* connected to, or fails to connect once {@code reachable} is cleared.
+	*/
+public class ReconnectingRSocketTests {
+
+	private final List<RSocket> connected = new CopyOnWriteArrayList<>();
+	private volatile boolean reachable = true;
+
+	private final ReconnectingRSocket rSocket = new ReconnectingRSocket(Mono.defer(() -> {
+		if (!this.reachable) {
+			return Mono.error(new ConnectException("connection refused"));
+		}
+		RSocket server = new Server("server-" + (this.connected.size() + 1));
+		this.connected.add(server);
+		return Mono.just(server);
+	}));
+
+	@Test
+	public void connectsOnFirstUseAndSharesTheConnection() {
+		assertThat(this.connected).isEmpty();
+		assertThat(this.greet()).isEqualTo("server-1");
+		assertThat(this.greet()).isEqualTo("server-1");
+		assertThat(this.connected).hasSize(1);
+	}
+
+	@Test
+	public void connectsAgainOnceTheConnectionCloses() {
+		assertThat(this.greet()).isEqualTo("server-1");
+		this.connected.get(0).dispose();
+		assertThat(this.greet()).isEqualTo("server-2");
+	}
+
+	@Test
+	public void releasesARequestThatCouldNotConnect() {
+		this.reachable = false;
+		Payload request = ByteBufPayload.create("hello");
+		StepVerifier.create(this.rSocket.requestResponse(request))
+			.expectError(ConnectException.class)
+			.verify();
+		assertThat(request.refCnt()).isZero();
+	}
+
+	@Test
+	public void releasesTheChannelPayloadsThatCouldNotConnect() {
+		this.reachable = false;
+		Payload first = ByteBufPayload.create("hello");
+		Payload second = ByteBufPayload.create("again");
+		StepVerifier.create(this.rSocket.requestChannel(Flux.just(first, second)))
+			.expectError(ConnectException.class)
+			.verify();
+		assertThat(first.refCnt()).isZero();
+		assertThat(second.refCnt()).isZero();
+	}
+
+	@Test
+	public void refusesRequestsAndClosesTheConnectionOnceDisposed() {
+		this.greet();
+		this.rSocket.dispose();
+		assertThat(this.connected.get(0).isDisposed()).isTrue();
+		StepVerifier.create(this.rSocket.requestResponse(DefaultPayload.create("hello")))
+			.expectError(IllegalStateException.class)
+			.verify();
+	}
+
+	private String greet() {
+		return this.rSocket.requestResponse(DefaultPayload.create("hello")).block().getDataUtf8();
+	}
+
+	private static class Server extends AbstractRSocket {
+
+		private final String name;
+
+		Server(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Mono<Payload> requestResponse(Payload payload) {
+			payload.release();
+			return Mono.just(DefaultPayload.create(this.name));
+		}
+	}
+}
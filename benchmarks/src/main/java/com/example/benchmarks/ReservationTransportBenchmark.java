@@ -0,0 +1,256 @@
+package com.example.benchmarks;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Frame;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.RSocketFactory;
+import io.rsocket.transport.netty.client.TcpClientTransport;
+import io.rsocket.transport.netty.server.NettyContextCloseable;
+import io.rsocket.transport.netty.server.TcpServerTransport;
+import io.rsocket.util.ByteBufPayload;
+import io.rsocket.util.DefaultPayload;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.server.reactive.HttpHandler;
+import org.springframework.http.server.reactive.ReactorHttpHandlerAdapter;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.web.reactive.function.server.RequestPredicates.GET;
+import static org.springframework.web.reactive.function.server.RouterFunctions.route;
+
+/**
+	* Compares reading every reservation over RSocket ({@code requestStream}, one binary-encoded reservation per payload,
+	* decoded straight from the retained frame as reservation-client does) with reading them over HTTP with
+	* {@code WebClient.bodyToFlux(Reservation.class)}. Both run against an in-process stand-in for reservation-service
+	* that serves the same reservations from memory, so the numbers reflect the transports and codecs rather than a database.
+	*
+	* <p>The {@code rows}, {@code nameLength} (payload size) and {@code concurrency} (simultaneous streams per operation)
+	* parameters are swept. Every operation reads all the reservations {@code concurrency} times; the {@code items} counter
+	* reports the same per reservation, so in average time mode it is the per-reservation latency. Build with
+	* {@code ./mvnw -Pbenchmarks package} (or {@code mvn package} in this directory) and run
+	* {@code java -jar target/benchmarks.jar}; JMH options such as {@code -p rows=1000} narrow the sweep.
+	*/
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReservationTransportBenchmark {
+
+	@Param({"100", "10000"})
+	public int rows;
+
+	@Param({"16", "256", "4096"})
+	public int nameLength;
+
+	@Param({"1", "16"})
+	public int concurrency;
+
+	private InMemoryReservationService service;
+	private RSocket rSocket;
+	private WebClient webClient;
+
+	@Setup(Level.Trial)
+	public void start() {
+		this.service = new InMemoryReservationService(this.rows, this.nameLength);
+		this.rSocket = RSocketFactory
+			.connect()
+			.frameDecoder(Frame::retain)
+			.dataMimeType(BinaryReservationCodec.MIME_TYPE)
+			.transport(TcpClientTransport.create(this.service.rSocketAddress(), this.service.rSocketPort()))
+			.start()
+			.block();
+		this.webClient = WebClient.create("http://" + this.service.httpAddress() + ':' + this.service.httpPort());
+	}
+
+	@TearDown(Level.Trial)
+	public void stop() {
+		this.rSocket.dispose();
+		this.service.dispose();
+	}
+
+	@Benchmark
+	public long rSocket(Items items) {
+		return items.add(Flux
+			.range(0, this.concurrency)
+			.flatMap(i -> this.rSocket
+				.requestStream(DefaultPayload.create(new byte[0]))
+				.map(BinaryReservationCodec::decodeAndRelease), this.concurrency)
+			.count()
+			.block());
+	}
+
+	@Benchmark
+	public long webClient(Items items) {
+		return items.add(Flux
+			.range(0, this.concurrency)
+			.flatMap(i -> this.webClient
+				.get()
+				.uri("/reservations")
+				.retrieve()
+				.bodyToFlux(Reservation.class), this.concurrency)
+			.count()
+			.block());
+	}
+
+	/**
+		* Counts the reservations read, so that JMH also reports throughput per reservation.
+		*/
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Items {
+
+		public long items;
+
+		long add(long count) {
+			this.items += count;
+			return count;
+		}
+	}
+}
+
+/**
+	* Stands in for reservation-service: the same reservations from memory, as an RSocket {@code requestStream}
+	* and as {@code GET /reservations}, both on ephemeral local ports.
+	*/
+class InMemoryReservationService {
+
+	private final NettyContextCloseable rSocketServer;
+	private final DisposableServer httpServer;
+
+	InMemoryReservationService(int rows, int nameLength) {
+		List<Reservation> reservations = new ArrayList<>(rows);
+		String name = String.join("", Collections.nCopies(nameLength, "x"));
+		for (int i = 0; i < rows; i++) {
+			reservations.add(new Reservation(i, name));
+		}
+
+		RSocket reply = new AbstractRSocket() {
+
+			@Override
+			public Flux<Payload> requestStream(Payload request) {
+				request.release();
+				return Flux
+					.fromIterable(reservations)
+					.map(reservation -> ByteBufPayload.create(BinaryReservationCodec.encode(ByteBufAllocator.DEFAULT, reservation)));
+			}
+		};
+		this.rSocketServer = RSocketFactory
+			.receive()
+			.acceptor((setup, sendingSocket) -> Mono.just(reply))
+			.transport(TcpServerTransport.create("localhost", 0))
+			.start()
+			.block();
+
+		HttpHandler handler = RouterFunctions.toHttpHandler(
+			route(GET("/reservations"), request -> ServerResponse.ok().body(Flux.fromIterable(reservations), Reservation.class)));
+		this.httpServer = HttpServer
+			.create()
+			.host("localhost")
+			.port(0)
+			.handle(new ReactorHttpHandlerAdapter(handler))
+			.bindNow();
+	}
+
+	String rSocketAddress() {
+		return this.rSocketServer.address().getHostString();
+	}
+
+	int rSocketPort() {
+		return this.rSocketServer.address().getPort();
+	}
+
+	String httpAddress() {
+		return this.httpServer.host();
+	}
+
+	int httpPort() {
+		return this.httpServer.port();
+	}
+
+	void dispose() {
+		this.rSocketServer.dispose();
+		this.httpServer.disposeNow();
+	}
+}
+
+/**
+	* The reservation-service binary layout: the id as an {@code int} ({@code -1} for none) followed by the name
+	* as an {@code int} byte count ({@code -1} for none) and its UTF-8 bytes.
+	*/
+abstract class BinaryReservationCodec {
+
+	static final String MIME_TYPE = "application/x.reservation+binary";
+
+	static ByteBuf encode(ByteBufAllocator allocator, Reservation reservation) {
+		ByteBuf buffer = allocator.buffer();
+		buffer.writeInt(reservation.getId() == null ? -1 : reservation.getId());
+		if (reservation.getName() == null) {
+			buffer.writeInt(-1);
+		}
+		else {
+			int lengthIndex = buffer.writerIndex();
+			buffer.writeInt(0);
+			buffer.setInt(lengthIndex, ByteBufUtil.writeUtf8(buffer, reservation.getName()));
+		}
+		return buffer;
+	}
+
+	static Reservation decodeAndRelease(Payload payload) {
+		try {
+			ByteBuf buffer = payload.sliceData();
+			int id = buffer.readInt();
+			int length = buffer.readInt();
+			String name = null;
+			if (length >= 0) {
+				name = buffer.toString(buffer.readerIndex(), length, StandardCharsets.UTF_8);
+				buffer.skipBytes(length);
+			}
+			return new Reservation(id < 0 ? null : id, name);
+		}
+		finally {
+			payload.release();
+		}
+	}
+}
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+class Reservation {
+
+	private Integer id;
+	private String name;
+}
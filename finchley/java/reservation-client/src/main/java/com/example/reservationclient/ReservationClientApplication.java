@@ -1,6 +1,14 @@
 package com.example.reservationclient;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
+import io.rsocket.Frame;
 import io.rsocket.Payload;
 import io.rsocket.RSocketFactory;
 import io.rsocket.transport.netty.client.TcpClientTransport;
@@ -9,6 +17,7 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.client.loadbalancer.LoadBalanced;
@@ -18,6 +27,7 @@ import org.springframework.cloud.gateway.route.builder.RouteLocatorBuilder;
 import org.springframework.cloud.netflix.hystrix.HystrixCommands;
 import org.springframework.context.annotation.Bean;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.security.config.web.server.ServerHttpSecurity;
 import org.springframework.security.core.userdetails.MapReactiveUserDetailsService;
 import org.springframework.security.core.userdetails.User;
@@ -29,6 +39,12 @@ import org.springframework.web.reactive.function.server.ServerResponse;
 import reactor.core.publisher.Flux;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import static org.springframework.web.reactive.function.server.RequestPredicates.GET;
 import static org.springframework.web.reactive.function.server.RouterFunctions.route;
@@ -135,36 +151,162 @@ class Reservation {
 @Component
 class ReservationClient {
 
-	private final ObjectMapper objectMapper;
+	private final ReservationCodec codec;
 
 	private final TcpClientTransport localhost =
 		TcpClientTransport.create("localhost", 7000);
 
-	ReservationClient(ObjectMapper objectMapper) {
-		this.objectMapper = objectMapper;
+	ReservationClient(ReservationCodecs codecs,
+		@Value("${reservations.rsocket.data-mime-type:" + BinaryReservationCodec.MIME_TYPE + "}") String dataMimeType) {
+		this.codec = codecs.forMimeType(dataMimeType);
 	}
 
 	public Flux<Reservation> getAllReservations() {
 
 		return RSocketFactory
 			.connect()
+			.dataMimeType(this.codec.mimeType())
+			.frameDecoder(Frame::retain)
 			.transport(this.localhost)
 			.start()
 			.flatMapMany(socket ->
 				socket
 					.requestStream(DefaultPayload.create(new byte[0]))
-					.map(Payload::getDataUtf8)
-					.map(obj -> {
-						try {
-							return this.objectMapper
-								.readValue(obj, Reservation.class);
-						}
-						catch (IOException e) {
-							throw new RuntimeException(e);
-						}
-					})
+					.map(this.codec::decodeAndRelease)
 					.doFinally(signal -> socket.dispose())
 			);
 	}
 
 }
+
+/**
+	* Encodes {@link Reservation reservations} straight into (and out of) {@link ByteBuf buffers}
+	* for the data MIME type announced in the RSocket setup frame.
+	*/
+interface ReservationCodec {
+
+	String mimeType();
+
+	ByteBuf encode(ByteBufAllocator allocator, Reservation reservation);
+
+	Reservation decode(ByteBuf buffer);
+
+	/**
+		* Decodes straight from the payload's data buffer and then releases the payload, whether or not decoding succeeded.
+		*/
+	default Reservation decodeAndRelease(Payload payload) {
+		try {
+			return this.decode(payload.sliceData());
+		}
+		finally {
+			payload.release();
+		}
+	}
+}
+
+@Component
+class JsonReservationCodec implements ReservationCodec {
+
+	static final String MIME_TYPE = MediaType.APPLICATION_JSON_VALUE;
+
+	private final ObjectReader reader;
+	private final ObjectWriter writer;
+
+	JsonReservationCodec(ObjectMapper objectMapper) {
+		this.reader = objectMapper.readerFor(Reservation.class);
+		this.writer = objectMapper.writerFor(Reservation.class);
+	}
+
+	@Override
+	public String mimeType() {
+		return MIME_TYPE;
+	}
+
+	@Override
+	public ByteBuf encode(ByteBufAllocator allocator, Reservation reservation) {
+		ByteBuf buffer = allocator.buffer();
+		try {
+			this.writer.writeValue((OutputStream) new ByteBufOutputStream(buffer), reservation);
+			return buffer;
+		}
+		catch (IOException e) {
+			buffer.release();
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public Reservation decode(ByteBuf buffer) {
+		try {
+			return this.reader.readValue((InputStream) new ByteBufInputStream(buffer));
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
+
+/**
+	* Must stay in step with the layout used by reservation-service: the id and then the reservationName,
+	* each written as an {@code int} byte count ({@code -1} for none) followed by its UTF-8 bytes.
+	*/
+@Component
+class BinaryReservationCodec implements ReservationCodec {
+
+	static final String MIME_TYPE = "application/x.reservation+binary";
+
+	@Override
+	public String mimeType() {
+		return MIME_TYPE;
+	}
+
+	@Override
+	public ByteBuf encode(ByteBufAllocator allocator, Reservation reservation) {
+		ByteBuf buffer = allocator.buffer();
+		this.write(buffer, reservation.getId());
+		this.write(buffer, reservation.getReservationName());
+		return buffer;
+	}
+
+	@Override
+	public Reservation decode(ByteBuf buffer) {
+		String id = this.read(buffer);
+		return new Reservation(id, this.read(buffer));
+	}
+
+	private void write(ByteBuf buffer, String value) {
+		if (value == null) {
+			buffer.writeInt(-1);
+			return;
+		}
+		int lengthIndex = buffer.writerIndex();
+		buffer.writeInt(0);
+		buffer.setInt(lengthIndex, ByteBufUtil.writeUtf8(buffer, value));
+	}
+
+	private String read(ByteBuf buffer) {
+		int length = buffer.readInt();
+		if (length < 0) {
+			return null;
+		}
+		String value = buffer.toString(buffer.readerIndex(), length, StandardCharsets.UTF_8);
+		buffer.skipBytes(length);
+		return value;
+	}
+}
+
+@Component
+class ReservationCodecs {
+
+	private final Map<String, ReservationCodec> codecs = new HashMap<>();
+	private final ReservationCodec fallback;
+
+	ReservationCodecs(List<ReservationCodec> codecs, JsonReservationCodec fallback) {
+		codecs.forEach(codec -> this.codecs.put(codec.mimeType(), codec));
+		this.fallback = fallback;
+	}
+
+	ReservationCodec forMimeType(String mimeType) {
+		return this.codecs.getOrDefault(mimeType, this.fallback);
+	}
+}
@@ -1,17 +1,23 @@
 package com.example.reservationservice;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
 import io.rsocket.AbstractRSocket;
 import io.rsocket.Payload;
 import io.rsocket.RSocketFactory;
 import io.rsocket.SocketAcceptor;
 import io.rsocket.transport.netty.server.TcpServerTransport;
-import io.rsocket.util.DefaultPayload;
+import io.rsocket.util.ByteBufPayload;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.extern.log4j.Log4j2;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
 import org.springframework.boot.SpringApplication;
@@ -21,15 +27,30 @@ import org.springframework.context.ApplicationListener;
 import org.springframework.context.annotation.Bean;
 import org.springframework.core.env.Environment;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.RequestPredicate;
 import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import static org.springframework.web.reactive.function.server.RequestPredicates.GET;
+import static org.springframework.web.reactive.function.server.RequestPredicates.queryParam;
 import static org.springframework.web.reactive.function.server.RouterFunctions.route;
 import static org.springframework.web.reactive.function.server.ServerResponse.*;
 import static org.springframework.web.reactive.function.server.ServerResponse.ok;
@@ -44,22 +65,79 @@ public class ReservationServiceApplication {
 	@Bean
 	RouterFunction<ServerResponse> routes(
 		ReservationRepository rr,
+		ReservationPages pages,
 		Environment env) {
-		return route(GET("/reservations"),
-			request -> ok().body(rr.findAll(), Reservation.class))
+		return route(GET("/reservations").and(ReservationPages.REQUESTED), pages::page)
+			.andRoute(GET("/reservations"),
+				request -> ok().body(rr.findAll(), Reservation.class))
 			.andRoute(GET("/message"), request -> ok().syncBody(env.getProperty("message")));
 	}
 
 }
 
+/**
+	* Serves {@code GET /reservations?limit=&after=}: up to {@code limit} reservations (never more than
+	* {@code max-limit}) whose id is greater than {@code after}, in id order. When a page comes back full, the
+	* {@code X-Next-Cursor} header holds the {@code after} value for the next one.
+	*/
+@Component
+class ReservationPages {
+
+	static final String NEXT_CURSOR = "X-Next-Cursor";
+
+	static final RequestPredicate REQUESTED = queryParam("limit", limit -> true).or(queryParam("after", after -> true));
+
+	private final ReservationRepository reservationRepository;
+	private final int maxLimit;
+
+	ReservationPages(ReservationRepository reservationRepository,
+		@Value("${reservations.page.max-limit:1000}") int maxLimit) {
+		this.reservationRepository = reservationRepository;
+		this.maxLimit = maxLimit;
+	}
+
+	Mono<ServerResponse> page(ServerRequest request) {
+		int limit;
+		try {
+			limit = request.queryParam("limit").map(Integer::parseInt).orElse(this.maxLimit);
+		}
+		catch (NumberFormatException e) {
+			return ServerResponse.badRequest().syncBody("limit must be a number");
+		}
+		String after = request.queryParam("after").orElse(null);
+		if (limit < 1 || after != null && !ObjectId.isValid(after)) {
+			return ServerResponse.badRequest().syncBody("limit must be at least 1 and after must be a reservation id");
+		}
+		int size = Math.min(limit, this.maxLimit);
+		Pageable pageable = PageRequest.of(0, size, Sort.by("id"));
+		Flux<Reservation> reservations = after == null ?
+			this.reservationRepository.findAllBy(pageable) : this.reservationRepository.findByIdGreaterThan(after, pageable);
+		return reservations
+			.collectList()
+			.flatMap(page -> {
+				ServerResponse.BodyBuilder response = ok();
+				if (page.size() == size) {
+					response.header(NEXT_CURSOR, page.get(page.size() - 1).getId());
+				}
+				return response.syncBody(page);
+			});
+	}
+}
+
 
 @Component
 class Runner implements ApplicationRunner {
 
 	private final ReservationRepository reservationRepository;
+	private final int batchSize;
+	private final int parallelism;
 
-	Runner(ReservationRepository reservationRepository) {
+	Runner(ReservationRepository reservationRepository,
+		@Value("${reservations.seed.batch-size:1000}") int batchSize,
+		@Value("${reservations.seed.parallelism:4}") int parallelism) {
 		this.reservationRepository = reservationRepository;
+		this.batchSize = batchSize;
+		this.parallelism = parallelism;
 	}
 
 	@Override
@@ -70,12 +148,11 @@ class Runner implements ApplicationRunner {
 				"Kieran", "Rudrakshi", "Sean", "Sumi");
 
 		Flux<Reservation> flux = stringFlux
-			.map(name -> new Reservation(null, name))
-			.flatMap(this.reservationRepository::save);
+			.map(name -> new Reservation(null, name));
 
 		this.reservationRepository
 			.deleteAll()
-			.thenMany(flux)
+			.then(this.reservationRepository.insertAll(flux, this.batchSize, this.parallelism))
 			.thenMany(this.reservationRepository.findAll())
 			.subscribe(System.out::println);
 
@@ -86,6 +163,20 @@ class Runner implements ApplicationRunner {
 interface ReservationRepository extends ReactiveMongoRepository<Reservation,
 	String> {
 
+	Flux<Reservation> findAllBy(Pageable pageable);
+
+	Flux<Reservation> findByIdGreaterThan(String after, Pageable pageable);
+
+	/**
+		* Inserts the reservations with one {@code insertMany} per batch of {@code batchSize}, with up to
+		* {@code parallelism} batches in flight, and returns the number of documents written.
+		*/
+	default Mono<Long> insertAll(Flux<Reservation> reservations, int batchSize, int parallelism) {
+		return reservations
+			.buffer(batchSize)
+			.flatMap(batch -> this.insert(batch).count(), parallelism)
+			.reduce(0L, (rows, written) -> rows + written);
+	}
 }
 
 
@@ -96,34 +187,30 @@ class ReservationService
 	implements ApplicationListener<ApplicationReadyEvent> {
 
 	private final ReservationRepository reservationRepository;
-	private final ObjectMapper mapper;
+	private final ReservationCodecs codecs;
 
-	ReservationService(ReservationRepository reservationRepository, ObjectMapper mapper) {
+	ReservationService(ReservationRepository reservationRepository, ReservationCodecs codecs) {
 		this.reservationRepository = reservationRepository;
-		this.mapper = mapper;
+		this.codecs = codecs;
 	}
 
 	@Override
 	public void onApplicationEvent(ApplicationReadyEvent event) {
 
 		SocketAcceptor sa =
-			(connectionSetupPayload, rSocket) -> Mono.just(new AbstractRSocket() {
-				@Override
-				public Flux<Payload> requestStream(Payload payload) {
-					return
-						reservationRepository
-							.findAll()
-							.map(x -> {
-								try {
-									return mapper.writeValueAsString(x);
-								}
-								catch (JsonProcessingException e) {
-									throw new RuntimeException(e);
-								}
-							})
-							.map(DefaultPayload::create);
-				}
-			});
+			(connectionSetupPayload, rSocket) -> {
+				ReservationCodec codec = codecs.forMimeType(connectionSetupPayload.dataMimeType());
+				return Mono.just(new AbstractRSocket() {
+					@Override
+					public Flux<Payload> requestStream(Payload payload) {
+						return
+							reservationRepository
+								.findAll()
+								.map(x -> codec.encode(ByteBufAllocator.DEFAULT, x))
+								.map(ByteBufPayload::create);
+					}
+				});
+			};
 
 		RSocketFactory
 			.receive()
@@ -135,6 +222,124 @@ class ReservationService
 	}
 }
 
+/**
+	* Encodes {@link Reservation reservations} straight into (and out of) {@link ByteBuf buffers}
+	* for the data MIME type a client asks for in its RSocket setup frame.
+	*/
+interface ReservationCodec {
+
+	String mimeType();
+
+	ByteBuf encode(ByteBufAllocator allocator, Reservation reservation);
+
+	Reservation decode(ByteBuf buffer);
+}
+
+@Component
+class JsonReservationCodec implements ReservationCodec {
+
+	static final String MIME_TYPE = MediaType.APPLICATION_JSON_VALUE;
+
+	private final ObjectMapper objectMapper;
+
+	JsonReservationCodec(ObjectMapper objectMapper) {
+		this.objectMapper = objectMapper;
+	}
+
+	@Override
+	public String mimeType() {
+		return MIME_TYPE;
+	}
+
+	@Override
+	public ByteBuf encode(ByteBufAllocator allocator, Reservation reservation) {
+		ByteBuf buffer = allocator.buffer();
+		try {
+			this.objectMapper.writeValue((OutputStream) new ByteBufOutputStream(buffer), reservation);
+			return buffer;
+		}
+		catch (IOException e) {
+			buffer.release();
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public Reservation decode(ByteBuf buffer) {
+		try {
+			return this.objectMapper.readValue((InputStream) new ByteBufInputStream(buffer), Reservation.class);
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
+
+/**
+	* A fixed layout of length-prefixed fields: the id and then the reservationName, each written as
+	* an {@code int} byte count ({@code -1} for none) followed by its UTF-8 bytes.
+	*/
+@Component
+class BinaryReservationCodec implements ReservationCodec {
+
+	static final String MIME_TYPE = "application/x.reservation+binary";
+
+	@Override
+	public String mimeType() {
+		return MIME_TYPE;
+	}
+
+	@Override
+	public ByteBuf encode(ByteBufAllocator allocator, Reservation reservation) {
+		ByteBuf buffer = allocator.buffer();
+		this.write(buffer, reservation.getId());
+		this.write(buffer, reservation.getReservationName());
+		return buffer;
+	}
+
+	@Override
+	public Reservation decode(ByteBuf buffer) {
+		String id = this.read(buffer);
+		return new Reservation(id, this.read(buffer));
+	}
+
+	private void write(ByteBuf buffer, String value) {
+		if (value == null) {
+			buffer.writeInt(-1);
+			return;
+		}
+		int lengthIndex = buffer.writerIndex();
+		buffer.writeInt(0);
+		buffer.setInt(lengthIndex, ByteBufUtil.writeUtf8(buffer, value));
+	}
+
+	private String read(ByteBuf buffer) {
+		int length = buffer.readInt();
+		if (length < 0) {
+			return null;
+		}
+		String value = buffer.toString(buffer.readerIndex(), length, StandardCharsets.UTF_8);
+		buffer.skipBytes(length);
+		return value;
+	}
+}
+
+@Component
+class ReservationCodecs {
+
+	private final Map<String, ReservationCodec> codecs = new HashMap<>();
+	private final ReservationCodec fallback;
+
+	ReservationCodecs(List<ReservationCodec> codecs, JsonReservationCodec fallback) {
+		codecs.forEach(codec -> this.codecs.put(codec.mimeType(), codec));
+		this.fallback = fallback;
+	}
+
+	ReservationCodec forMimeType(String mimeType) {
+		return this.codecs.getOrDefault(mimeType, this.fallback);
+	}
+}
+
 
 
 @Data
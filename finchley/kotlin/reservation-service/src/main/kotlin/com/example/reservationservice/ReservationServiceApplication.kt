@@ -1,6 +1,8 @@
 package com.example.reservationservice
 
 import org.apache.commons.logging.LogFactory
+import org.bson.types.ObjectId
+import org.springframework.beans.factory.annotation.Value
 import org.springframework.boot.ApplicationRunner
 import org.springframework.boot.autoconfigure.SpringBootApplication
 import org.springframework.boot.runApplication
@@ -10,16 +12,25 @@ import org.springframework.cloud.stream.annotation.StreamListener
 import org.springframework.cloud.stream.messaging.Sink
 import org.springframework.context.annotation.Bean
 import org.springframework.data.annotation.Id
+import org.springframework.data.domain.PageRequest
+import org.springframework.data.domain.Pageable
+import org.springframework.data.domain.Sort
 import org.springframework.data.mongodb.core.mapping.Document
 import org.springframework.data.mongodb.repository.ReactiveMongoRepository
+import org.springframework.stereotype.Component
+import org.springframework.web.reactive.function.server.ServerRequest
 import org.springframework.web.reactive.function.server.ServerResponse
 import org.springframework.web.reactive.function.server.body
 import org.springframework.web.reactive.function.server.router
 import reactor.core.publisher.Flux
+import reactor.core.publisher.Mono
+import java.time.Duration
 
 @SpringBootApplication
 @EnableBinding(Sink::class)
-class ReservationServiceApplication(val repo: ReservationRepository) {
+class ReservationServiceApplication(val repo: ReservationRepository, val pages: ReservationPages,
+									@Value("\${reservations.ingest.batch-size:500}") val ingestBatchSize: Int,
+									@Value("\${reservations.ingest.batch-timeout:100ms}") val ingestBatchTimeout: Duration) {
 
 	private val log = LogFactory.getLog(javaClass)
 
@@ -27,25 +38,27 @@ class ReservationServiceApplication(val repo: ReservationRepository) {
 	fun incoming(@Input(Sink.INPUT) names: Flux<String>) {
 		names
 				.map { Reservation(reservationName = it) }
-				.flatMap { repo.save(it) }
+				.bufferTimeout(ingestBatchSize, ingestBatchTimeout)
+				.concatMap { repo.insert(it) }
 				.subscribe { println("just saved ${it.id} / ${it.reservationName}") }
 	}
 
 	@get:Bean
 	val routes = router {
+		(GET("/reservations") and (queryParam("limit") { true } or queryParam("after") { true })) {
+			pages.page(it)
+		}
 		GET("/reservations") {
 			ServerResponse.ok().body(repo.findAll())
 		}
 	}
 
-	@get:Bean
-	val data = ApplicationRunner {
+	@Bean
+	fun data(@Value("\${reservations.seed.batch-size:1000}") batchSize: Int,
+			 @Value("\${reservations.seed.parallelism:4}") parallelism: Int) = ApplicationRunner {
 		repo
 				.deleteAll()
-				.thenMany(
-						Flux.just("A", "B", "C", "D")
-								.map { Reservation(reservationName = it) }
-								.flatMap { repo.save(it) })
+				.then(repo.insertAll(Flux.just("A", "B", "C", "D").map { Reservation(reservationName = it) }, batchSize, parallelism))
 				.thenMany(repo.findAll())
 				.subscribe {
 					log.info("id# ${it.id} reservationName: '${it.reservationName}' ")
@@ -53,7 +66,57 @@ class ReservationServiceApplication(val repo: ReservationRepository) {
 	}
 }
 
-interface ReservationRepository : ReactiveMongoRepository<Reservation, String>
+/**
+ * Serves `GET /reservations?limit=&after=`: up to `limit` reservations (never more than `max-limit`) whose id is
+ * greater than `after`, in id order. When a page comes back full, the `X-Next-Cursor` header holds the `after`
+ * value for the next one.
+ */
+@Component
+class ReservationPages(private val repo: ReservationRepository,
+					   @Value("\${reservations.page.max-limit:1000}") private val maxLimit: Int) {
+
+	fun page(request: ServerRequest): Mono<ServerResponse> {
+		val limit = request.queryParam("limit").map { it.toIntOrNull() ?: 0 }.orElse(maxLimit)
+		val after = request.queryParam("after").orElse(null)
+		if (limit < 1 || after != null && !ObjectId.isValid(after)) {
+			return ServerResponse.badRequest().syncBody("limit must be at least 1 and after must be a reservation id")
+		}
+		val size = minOf(limit, maxLimit)
+		val pageable = PageRequest.of(0, size, Sort.by("id"))
+		val reservations = if (after == null) repo.findAllBy(pageable) else repo.findByIdGreaterThan(after, pageable)
+		return reservations
+				.collectList()
+				.flatMap { page ->
+					val response = ServerResponse.ok()
+					if (page.size == size) {
+						response.header(NEXT_CURSOR, page.last().id)
+					}
+					response.syncBody(page)
+				}
+	}
+
+	companion object {
+		const val NEXT_CURSOR = "X-Next-Cursor"
+	}
+}
+
+interface ReservationRepository : ReactiveMongoRepository<Reservation, String> {
+
+	fun findAllBy(pageable: Pageable): Flux<Reservation>
+
+	fun findByIdGreaterThan(after: String, pageable: Pageable): Flux<Reservation>
+}
+
+/**
+ * Inserts the reservations with one `insertMany` per batch of `batchSize`, with up to `parallelism` batches in
+ * flight, and returns the number of documents written. An extension rather than a default method, since the
+ * repository proxy would not dispatch to a Kotlin interface body.
+ */
+fun ReservationRepository.insertAll(reservations: Flux<Reservation>, batchSize: Int, parallelism: Int): Mono<Long> =
+		reservations
+				.buffer(batchSize)
+				.flatMap({ insert(it).count() }, parallelism)
+				.reduce(0L) { rows, written -> rows + written }
 
 @Document
 data class Reservation(@Id val id: String? = null, val reservationName: String? = null)
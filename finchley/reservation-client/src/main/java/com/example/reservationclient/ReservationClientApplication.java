@@ -1,6 +1,14 @@
 package com.example.reservationclient;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
+import io.rsocket.Frame;
 import io.rsocket.Payload;
 import io.rsocket.RSocket;
 import io.rsocket.RSocketFactory;
@@ -10,6 +18,7 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cloud.gateway.filter.ratelimit.RedisRateLimiter;
@@ -18,6 +27,7 @@ import org.springframework.cloud.gateway.route.builder.RouteLocatorBuilder;
 import org.springframework.cloud.netflix.hystrix.HystrixCommands;
 import org.springframework.context.annotation.Bean;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.security.config.web.server.ServerHttpSecurity;
 import org.springframework.security.core.userdetails.MapReactiveUserDetailsService;
 import org.springframework.security.core.userdetails.User;
@@ -28,8 +38,19 @@ import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.server.RouterFunction;
 import org.springframework.web.reactive.function.server.ServerResponse;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import javax.annotation.PreDestroy;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.springframework.web.reactive.function.server.RequestPredicates.GET;
 import static org.springframework.web.reactive.function.server.RouterFunctions.route;
@@ -119,37 +140,226 @@ class Reservation {
 }
 
 
+/**
+	* Multiplexes every request over one long-lived RSocket connection. The connection is opened lazily,
+	* kept alive with keepalive frames, and dropped once it closes so that the next request reconnects
+	* (with exponential backoff) instead of paying a fresh TCP and setup handshake on every call.
+	*/
 @Component
 class ReservationClient {
 
 	private final TcpClientTransport tcp = TcpClientTransport.create(7000);
-	private final RSocketFactory.Start<RSocket> transport = RSocketFactory
-		.connect()
-		.transport(this.tcp);
-	private final ObjectMapper objectMapper;
+	private final ReservationCodec codec;
+	private final Mono<RSocket> connect;
+	private final AtomicReference<Mono<RSocket>> connection = new AtomicReference<>();
+	private final Duration firstBackoff;
+	private final Duration maxBackoff;
+
+	ReservationClient(ReservationCodecs codecs,
+		@Value("${reservations.rsocket.data-mime-type:" + BinaryReservationCodec.MIME_TYPE + "}") String dataMimeType,
+		@Value("${reservations.rsocket.keep-alive.interval:20s}") Duration keepAliveInterval,
+		@Value("${reservations.rsocket.keep-alive.ack-timeout:90s}") Duration keepAliveAckTimeout,
+		@Value("${reservations.rsocket.connect.max-attempts:10}") int maxConnectAttempts,
+		@Value("${reservations.rsocket.connect.first-backoff:100ms}") Duration firstBackoff,
+		@Value("${reservations.rsocket.connect.max-backoff:10s}") Duration maxBackoff) {
+		this.codec = codecs.forMimeType(dataMimeType);
+		this.firstBackoff = firstBackoff;
+		this.maxBackoff = maxBackoff;
+		Mono<RSocket> start = RSocketFactory
+			.connect()
+			.dataMimeType(this.codec.mimeType())
+			.frameDecoder(Frame::retain)
+			.keepAliveTickPeriod(keepAliveInterval)
+			.keepAliveAckTimeout(keepAliveAckTimeout)
+			.transport(this.tcp)
+			.start();
+		// Reactor 3.1 (Boot 2.0) has no retryBackoff, so the backoff is spelled out by hand
+		this.connect = Mono.defer(() -> {
+			AtomicInteger attempts = new AtomicInteger();
+			return start.retryWhen(errors -> errors.concatMap(error -> {
+				int attempt = attempts.incrementAndGet();
+				if (attempt > maxConnectAttempts) {
+					return Mono.error(error);
+				}
+				return Mono.delay(this.backoff(attempt));
+			}));
+		});
+	}
+
+	private Duration backoff(int attempt) {
+		Duration backoff = this.firstBackoff.multipliedBy(1L << Math.min(attempt - 1, 30));
+		return backoff.compareTo(this.maxBackoff) > 0 ? this.maxBackoff : backoff;
+	}
+
+	private Mono<RSocket> rSocket() {
+		return Mono
+			.defer(() -> {
+				Mono<RSocket> cached = this.connection.get();
+				if (cached != null) {
+					return cached;
+				}
+				Mono<RSocket> fresh = this.connect
+					.doOnNext(rs -> rs.onClose().doFinally(signal -> this.connection.set(null)).subscribe())
+					.doOnError(e -> this.connection.set(null))
+					.cache();
+				return this.connection.compareAndSet(null, fresh) ? fresh : this.connection.get();
+			})
+			.flatMap(rs -> {
+				if (rs.isDisposed()) {
+					this.connection.set(null);
+					return this.rSocket();
+				}
+				return Mono.just(rs);
+			});
+	}
+
+	@PreDestroy
+	void close() {
+		Mono<RSocket> cached = this.connection.getAndSet(null);
+		if (cached != null) {
+			cached.subscribe(RSocket::dispose, e -> {
+			});
+		}
+	}
+
+	Flux<Reservation> getAllReservations() {
+		return this.rSocket()
+			.flatMapMany(clientRS -> clientRS.requestStream(DefaultPayload.create(new byte[0])))
+			.map(this.codec::decodeAndRelease);
+	}
+
+}
+
+/**
+	* Encodes {@link Reservation reservations} straight into (and out of) {@link ByteBuf buffers}
+	* for the data MIME type announced in the RSocket setup frame.
+	*/
+interface ReservationCodec {
+
+	String mimeType();
+
+	ByteBuf encode(ByteBufAllocator allocator, Reservation reservation);
+
+	Reservation decode(ByteBuf buffer);
+
+	/**
+		* Decodes straight from the payload's data buffer and then releases the payload, whether or not decoding succeeded.
+		*/
+	default Reservation decodeAndRelease(Payload payload) {
+		try {
+			return this.decode(payload.sliceData());
+		}
+		finally {
+			payload.release();
+		}
+	}
+}
+
+@Component
+class JsonReservationCodec implements ReservationCodec {
+
+	static final String MIME_TYPE = MediaType.APPLICATION_JSON_VALUE;
+
+	private final ObjectReader reader;
+	private final ObjectWriter writer;
+
+	JsonReservationCodec(ObjectMapper objectMapper) {
+		this.reader = objectMapper.readerFor(Reservation.class);
+		this.writer = objectMapper.writerFor(Reservation.class);
+	}
 
-	ReservationClient(ObjectMapper objectMapper) {
-		this.objectMapper = objectMapper;
+	@Override
+	public String mimeType() {
+		return MIME_TYPE;
 	}
 
-	private Reservation from(String json) {
+	@Override
+	public ByteBuf encode(ByteBufAllocator allocator, Reservation reservation) {
+		ByteBuf buffer = allocator.buffer();
 		try {
-			return this.objectMapper.readValue(json, Reservation.class);
+			this.writer.writeValue((OutputStream) new ByteBufOutputStream(buffer), reservation);
+			return buffer;
 		}
 		catch (IOException e) {
+			buffer.release();
 			throw new RuntimeException(e);
 		}
 	}
 
-	Flux<Reservation> getAllReservations() {
-		return transport
-			.start()
-			.flatMapMany(
-				clientRS -> clientRS.requestStream(DefaultPayload.create(new byte[0]))
-					.map(Payload::getDataUtf8)
-					.map(this::from));
+	@Override
+	public Reservation decode(ByteBuf buffer) {
+		try {
+			return this.reader.readValue((InputStream) new ByteBufInputStream(buffer));
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 	}
+}
 
+/**
+	* Must stay in step with the layout used by reservation-service: the id and then the name,
+	* each written as an {@code int} byte count ({@code -1} for none) followed by its UTF-8 bytes.
+	*/
+@Component
+class BinaryReservationCodec implements ReservationCodec {
+
+	static final String MIME_TYPE = "application/x.reservation+binary";
+
+	@Override
+	public String mimeType() {
+		return MIME_TYPE;
+	}
+
+	@Override
+	public ByteBuf encode(ByteBufAllocator allocator, Reservation reservation) {
+		ByteBuf buffer = allocator.buffer();
+		this.write(buffer, reservation.getId());
+		this.write(buffer, reservation.getName());
+		return buffer;
+	}
+
+	@Override
+	public Reservation decode(ByteBuf buffer) {
+		String id = this.read(buffer);
+		return new Reservation(id, this.read(buffer));
+	}
+
+	private void write(ByteBuf buffer, String value) {
+		if (value == null) {
+			buffer.writeInt(-1);
+			return;
+		}
+		int lengthIndex = buffer.writerIndex();
+		buffer.writeInt(0);
+		buffer.setInt(lengthIndex, ByteBufUtil.writeUtf8(buffer, value));
+	}
+
+	private String read(ByteBuf buffer) {
+		int length = buffer.readInt();
+		if (length < 0) {
+			return null;
+		}
+		String value = buffer.toString(buffer.readerIndex(), length, StandardCharsets.UTF_8);
+		buffer.skipBytes(length);
+		return value;
+	}
+}
+
+@Component
+class ReservationCodecs {
+
+	private final Map<String, ReservationCodec> codecs = new HashMap<>();
+	private final ReservationCodec fallback;
+
+	ReservationCodecs(List<ReservationCodec> codecs, JsonReservationCodec fallback) {
+		codecs.forEach(codec -> this.codecs.put(codec.mimeType(), codec));
+		this.fallback = fallback;
+	}
+
+	ReservationCodec forMimeType(String mimeType) {
+		return this.codecs.getOrDefault(mimeType, this.fallback);
+	}
 }
 
 
@@ -1,7 +1,14 @@
 package com.example.reservationservice;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.example.r2dbc.pool.PooledConnectionFactory;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
 import io.r2dbc.postgresql.PostgresqlConnectionConfiguration;
 import io.r2dbc.postgresql.PostgresqlConnectionFactory;
 import io.r2dbc.spi.ConnectionFactory;
@@ -10,34 +17,60 @@ import io.rsocket.Payload;
 import io.rsocket.RSocketFactory;
 import io.rsocket.SocketAcceptor;
 import io.rsocket.transport.netty.server.TcpServerTransport;
-import io.rsocket.util.DefaultPayload;
+import io.rsocket.util.ByteBufPayload;
+import javax.annotation.PreDestroy;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.extern.log4j.Log4j2;
-import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.event.EventListener;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.r2dbc.config.AbstractR2dbcConfiguration;
+import org.springframework.data.r2dbc.function.DatabaseClient;
 import org.springframework.data.r2dbc.repository.config.EnableR2dbcRepositories;
 import org.springframework.data.r2dbc.repository.query.Query;
 import org.springframework.data.repository.reactive.ReactiveCrudRepository;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.server.RequestPredicate;
 import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
 import reactor.core.publisher.Mono;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import static org.springframework.web.reactive.function.server.RequestPredicates.GET;
+import static org.springframework.web.reactive.function.server.RequestPredicates.queryParam;
 import static org.springframework.web.reactive.function.server.RouterFunctions.route;
 import static org.springframework.web.reactive.function.server.ServerResponse.ok;
 
@@ -45,9 +78,32 @@ import static org.springframework.web.reactive.function.server.ServerResponse.ok
 @SpringBootApplication
 public class ReservationServiceApplication extends AbstractR2dbcConfiguration {
 
+	private final PooledConnectionFactory pool;
+
+	public ReservationServiceApplication(ObjectProvider<MeterRegistry> registry,
+		@Value("${reservations.r2dbc.pool.min-size:2}") int minSize,
+		@Value("${reservations.r2dbc.pool.max-size:10}") int maxSize,
+		@Value("${reservations.r2dbc.pool.acquire-timeout:5s}") Duration acquireTimeout,
+		@Value("${reservations.r2dbc.pool.validation-query:select 1}") String validationQuery,
+		@Value("${reservations.r2dbc.pool.validate-after-idle:1s}") Duration validateAfterIdle,
+		@Value("${reservations.r2dbc.pool.max-idle-time:10m}") Duration maxIdleTime,
+		@Value("${reservations.r2dbc.pool.eviction-interval:30s}") Duration evictionInterval) {
+		PostgresqlConnectionConfiguration config = PostgresqlConnectionConfiguration
+			.builder()
+			.host("localhost")
+			.password("0rd3rs")
+			.username("orders")
+			.database("orders")
+			.build();
+		this.pool = new PooledConnectionFactory(new PostgresqlConnectionFactory(config),
+			registry.getIfAvailable(() -> Metrics.globalRegistry), "reservations", minSize, maxSize, acquireTimeout,
+			validationQuery, validateAfterIdle, maxIdleTime, evictionInterval);
+	}
+
 	@Bean
-	RouterFunction<ServerResponse> routes(ReservationRepository rr) {
-		return route(GET("/reservations"), r -> ok().body(rr.findAll(), Reservation.class));
+	RouterFunction<ServerResponse> routes(ReservationExport export, ReservationPages pages) {
+		return route(GET("/reservations").and(ReservationPages.REQUESTED), pages::page)
+			.andRoute(GET("/reservations"), export::export);
 	}
 
 	public static void main(String[] args) {
@@ -56,53 +112,238 @@ public class ReservationServiceApplication extends AbstractR2dbcConfiguration {
 
 	@Override
 	public ConnectionFactory connectionFactory() {
-		PostgresqlConnectionConfiguration config = PostgresqlConnectionConfiguration
-			.builder()
-			.host("localhost")
-			.password("0rd3rs")
-			.username("orders")
-			.database("orders")
-			.build();
-		return new PostgresqlConnectionFactory(config);
+		return this.pool;
 	}
-}
 
+	@PreDestroy
+	void close() {
+		this.pool.dispose();
+	}
+}
 
+/**
+	* Serves {@code GET /reservations?limit=&after=}: up to {@code limit} reservations (never more than
+	* {@code max-limit}) whose id is greater than {@code after}, in id order. When a page comes back full, the
+	* {@code X-Next-Cursor} header holds the {@code after} value for the next one.
+	*/
 @Component
-class RsocketServer {
+class ReservationPages {
+
+	static final String NEXT_CURSOR = "X-Next-Cursor";
+
+	static final RequestPredicate REQUESTED = queryParam("limit", limit -> true).or(queryParam("after", after -> true));
 
 	private final ReservationRepository reservationRepository;
-	private final ObjectMapper objectMapper;
-	private final TcpServerTransport tcp = TcpServerTransport.create(7000);
+	private final int maxLimit;
 
-	RsocketServer(ReservationRepository reservationRepository, ObjectMapper objectMapper) {
+	ReservationPages(ReservationRepository reservationRepository,
+		@Value("${reservations.page.max-limit:1000}") int maxLimit) {
 		this.reservationRepository = reservationRepository;
+		this.maxLimit = maxLimit;
+	}
+
+	Mono<ServerResponse> page(ServerRequest request) {
+		int limit;
+		int after;
+		try {
+			limit = request.queryParam("limit").map(Integer::parseInt).orElse(this.maxLimit);
+			after = request.queryParam("after").map(Integer::parseInt).orElse(Integer.MIN_VALUE);
+		}
+		catch (NumberFormatException e) {
+			return ServerResponse.badRequest().syncBody("limit and after must be numbers");
+		}
+		if (limit < 1) {
+			return ServerResponse.badRequest().syncBody("limit must be at least 1");
+		}
+		int size = Math.min(limit, this.maxLimit);
+		return this.reservationRepository
+			.findPage(after, size)
+			.collectList()
+			.flatMap(page -> {
+				ServerResponse.BodyBuilder response = ok();
+				if (page.size() == size) {
+					response.header(NEXT_CURSOR, String.valueOf(page.get(page.size() - 1).getId()));
+				}
+				return response.syncBody(page);
+			});
+	}
+}
+
+/**
+	* Serves {@code GET /reservations} as a JSON array that is written one reservation at a time, as fast as the
+	* client reads it. Jackson's encoder collects a {@code Flux} into a list before writing plain JSON, which would
+	* hold the whole table in memory for the length of a slow download. The rows come from keyset pages of at most
+	* {@code fetch-size} rows, each sized from the client's outstanding demand, and every page borrows a pooled
+	* connection only while it's being read, so a stalled download holds neither rows nor a connection.
+	*/
+@Component
+class ReservationExport {
+
+	private final ReservationCursor cursor;
+	private final ObjectMapper objectMapper;
+	private final DataBufferFactory buffers = new DefaultDataBufferFactory();
+	private final int fetchSize;
+
+	ReservationExport(ReservationCursor cursor, ObjectMapper objectMapper,
+		@Value("${reservations.export.fetch-size:256}") int fetchSize) {
+		Assert.isTrue(fetchSize > 0, "reservations.export.fetch-size must be at least 1");
+		this.cursor = cursor;
 		this.objectMapper = objectMapper;
+		this.fetchSize = fetchSize;
 	}
 
-	private String toJson(Reservation r) {
+	Mono<ServerResponse> export(ServerRequest request) {
+		Flux<DataBuffer> reservations = this.cursor.stream(this.fetchSize)
+			.index()
+			.map(reservation -> this.json(reservation.getT1() == 0 ? "" : ",", reservation.getT2()));
+		Flux<DataBuffer> array = Flux.concat(Mono.fromSupplier(() -> this.text("[")), reservations, Mono.fromSupplier(() -> this.text("]")));
+		return ok().contentType(MediaType.APPLICATION_JSON).body(BodyInserters.fromDataBuffers(array));
+	}
+
+	private DataBuffer json(String separator, Reservation reservation) {
 		try {
-			return this.objectMapper.writeValueAsString(r);
+			byte[] json = this.objectMapper.writeValueAsBytes(reservation);
+			return this.buffers.allocateBuffer(separator.length() + json.length)
+				.write(separator.getBytes(StandardCharsets.UTF_8))
+				.write(json);
 		}
-		catch (JsonProcessingException e) {
+		catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
+	private DataBuffer text(String text) {
+		return this.buffers.wrap(text.getBytes(StandardCharsets.UTF_8));
+	}
+}
+
+/**
+	* Reads the reservation table as a series of bounded keyset queries ({@code id > ? order by id limit ?}). Nothing is
+	* read until the subscriber asks for data, and each page is sized from the subscriber's outstanding demand, capped at
+	* {@code fetchSize}, so a slow subscriber never has more than one page in flight.
+	*/
+@Component
+class ReservationCursor {
+
+	private final DatabaseClient databaseClient;
+
+	ReservationCursor(DatabaseClient databaseClient) {
+		this.databaseClient = databaseClient;
+	}
+
+	Flux<Reservation> stream(int fetchSize) {
+		return Flux.create(sink -> new KeysetCursor(fetchSize, sink).start());
+	}
+
+	/**
+		* Reads one page: up to {@code fetchSize} reservations after {@code after} (or from the start when it's
+		* {@code null}), in id order.
+		*/
+	Flux<Reservation> fetch(Integer after, int fetchSize) {
+		DatabaseClient.GenericExecuteSpec spec = after == null
+			? this.databaseClient.execute().sql("select * from reservation order by id limit $1").bind(0, fetchSize)
+			: this.databaseClient.execute().sql("select * from reservation where id > $1 order by id limit $2")
+				.bind(0, after)
+				.bind(1, fetchSize);
+		return spec.as(Reservation.class).fetch().all();
+	}
+
+	private class KeysetCursor {
+
+		private final FluxSink<Reservation> sink;
+		private final int fetchSize;
+		private final AtomicInteger wip = new AtomicInteger();
+		private volatile boolean fetching;
+		private volatile Integer after;
+		private volatile Disposable page = Disposables.single();
+
+		KeysetCursor(int fetchSize, FluxSink<Reservation> sink) {
+			Assert.isTrue(fetchSize > 0, "the fetch size must be at least 1");
+			this.sink = sink;
+			this.fetchSize = fetchSize;
+		}
+
+		void start() {
+			this.sink.onDispose(() -> this.page.dispose());
+			this.sink.onRequest(n -> this.drain());
+		}
+
+		/**
+			* Starts the next page when there is demand and no page in flight. Demand arrives on the subscriber's thread
+			* and pages complete on the database's, possibly while this very call is still starting them, so only one
+			* thread runs the loop at a time and it goes round again for every call that came in meanwhile. That also
+			* keeps pages that complete straight away from recursing into each other.
+			*/
+		private void drain() {
+			if (this.wip.getAndIncrement() != 0) {
+				return;
+			}
+			int missed = 1;
+			do {
+				long requested = this.sink.requestedFromDownstream();
+				if (!this.fetching && requested > 0 && !this.sink.isCancelled()) {
+					this.fetching = true;
+					this.fetchPage((int) Math.min(requested, this.fetchSize));
+				}
+				missed = this.wip.addAndGet(-missed);
+			}
+			while (missed != 0);
+		}
+
+		private void fetchPage(int pageSize) {
+			AtomicInteger fetched = new AtomicInteger();
+			this.page = fetch(this.after, pageSize)
+				.subscribe(reservation -> {
+						fetched.incrementAndGet();
+						this.after = Integer.valueOf(reservation.getId());
+						this.sink.next(reservation);
+					},
+					this.sink::error,
+					() -> {
+						if (fetched.get() < pageSize) {
+							this.sink.complete();
+						}
+						else {
+							this.fetching = false;
+							this.drain();
+						}
+					});
+		}
+	}
+}
+
+
+@Component
+class RsocketServer {
+
+	private final ReservationRepository reservationRepository;
+	private final ReservationCodecs reservationCodecs;
+	private final TcpServerTransport tcp = TcpServerTransport.create(7000);
+
+	RsocketServer(ReservationRepository reservationRepository, ReservationCodecs reservationCodecs) {
+		this.reservationRepository = reservationRepository;
+		this.reservationCodecs = reservationCodecs;
+	}
+
 	@EventListener(ApplicationReadyEvent.class)
 	public void serve() throws Exception {
 
-		var abstractRSocket = new AbstractRSocket() {
+		SocketAcceptor socketAcceptor = (connectionSetupPayload, rSocket) -> {
 
-			@Override
-			public Flux<Payload> requestStream(Payload payload) {
-				return reservationRepository.findAll()
-					.map(RsocketServer.this::toJson)
-					.map(DefaultPayload::create);
-			}
-		};
+			var codec = this.reservationCodecs.forMimeType(connectionSetupPayload.dataMimeType());
+
+			var abstractRSocket = new AbstractRSocket() {
 
-		SocketAcceptor socketAcceptor = (connectionSetupPayload, rSocket) -> Mono.just(abstractRSocket);
+				@Override
+				public Flux<Payload> requestStream(Payload payload) {
+					return reservationRepository.findAll()
+						.map(reservation -> codec.encode(ByteBufAllocator.DEFAULT, reservation))
+						.map(ByteBufPayload::create);
+				}
+			};
+
+			return Mono.just(abstractRSocket);
+		};
 
 		RSocketFactory
 			.receive()
@@ -115,6 +356,124 @@ class RsocketServer {
 
 }
 
+/**
+	* Encodes {@link Reservation reservations} straight into (and out of) {@link ByteBuf buffers}
+	* for the data MIME type a client asks for in its RSocket setup frame.
+	*/
+interface ReservationCodec {
+
+	String mimeType();
+
+	ByteBuf encode(ByteBufAllocator allocator, Reservation reservation);
+
+	Reservation decode(ByteBuf buffer);
+}
+
+@Component
+class JsonReservationCodec implements ReservationCodec {
+
+	static final String MIME_TYPE = MediaType.APPLICATION_JSON_VALUE;
+
+	private final ObjectMapper objectMapper;
+
+	JsonReservationCodec(ObjectMapper objectMapper) {
+		this.objectMapper = objectMapper;
+	}
+
+	@Override
+	public String mimeType() {
+		return MIME_TYPE;
+	}
+
+	@Override
+	public ByteBuf encode(ByteBufAllocator allocator, Reservation reservation) {
+		ByteBuf buffer = allocator.buffer();
+		try {
+			this.objectMapper.writeValue((OutputStream) new ByteBufOutputStream(buffer), reservation);
+			return buffer;
+		}
+		catch (IOException e) {
+			buffer.release();
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public Reservation decode(ByteBuf buffer) {
+		try {
+			return this.objectMapper.readValue((InputStream) new ByteBufInputStream(buffer), Reservation.class);
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
+
+/**
+	* A fixed layout of length-prefixed fields: the id and then the name, each written as
+	* an {@code int} byte count ({@code -1} for none) followed by its UTF-8 bytes.
+	*/
+@Component
+class BinaryReservationCodec implements ReservationCodec {
+
+	static final String MIME_TYPE = "application/x.reservation+binary";
+
+	@Override
+	public String mimeType() {
+		return MIME_TYPE;
+	}
+
+	@Override
+	public ByteBuf encode(ByteBufAllocator allocator, Reservation reservation) {
+		ByteBuf buffer = allocator.buffer();
+		this.write(buffer, reservation.getId());
+		this.write(buffer, reservation.getName());
+		return buffer;
+	}
+
+	@Override
+	public Reservation decode(ByteBuf buffer) {
+		String id = this.read(buffer);
+		return new Reservation(id, this.read(buffer));
+	}
+
+	private void write(ByteBuf buffer, String value) {
+		if (value == null) {
+			buffer.writeInt(-1);
+			return;
+		}
+		int lengthIndex = buffer.writerIndex();
+		buffer.writeInt(0);
+		buffer.setInt(lengthIndex, ByteBufUtil.writeUtf8(buffer, value));
+	}
+
+	private String read(ByteBuf buffer) {
+		int length = buffer.readInt();
+		if (length < 0) {
+			return null;
+		}
+		String value = buffer.toString(buffer.readerIndex(), length, StandardCharsets.UTF_8);
+		buffer.skipBytes(length);
+		return value;
+	}
+}
+
+@Component
+class ReservationCodecs {
+
+	private final Map<String, ReservationCodec> codecs = new HashMap<>();
+	private final ReservationCodec fallback;
+
+	ReservationCodecs(List<ReservationCodec> codecs, JsonReservationCodec fallback) {
+		codecs.forEach(codec -> this.codecs.put(codec.mimeType(), codec));
+		this.fallback = fallback;
+	}
+
+	ReservationCodec forMimeType(String mimeType) {
+		return this.codecs.getOrDefault(mimeType, this.fallback);
+	}
+}
+
 
 @RestController
 @Log4j2
@@ -140,31 +499,116 @@ class ReservationRestController {
 class SampleDataInitializer {
 
 	private final ReservationRepository reservationRepository;
+	private final int batchSize;
+	private final int parallelism;
 
-	SampleDataInitializer(ReservationRepository reservationRepository) {
+	SampleDataInitializer(ReservationRepository reservationRepository,
+		@Value("${reservations.seed.batch-size:1000}") int batchSize,
+		@Value("${reservations.seed.parallelism:4}") int parallelism) {
 		this.reservationRepository = reservationRepository;
+		this.batchSize = batchSize;
+		this.parallelism = parallelism;
 	}
 
 	@EventListener(ApplicationReadyEvent.class)
 	public void writeSampleData() throws Exception {
 
-		Publisher<Reservation> reservationFlux = Flux
+		Flux<Reservation> reservationFlux = Flux
 			.just("Josh", "Jane", "Tammie", "Brian", "Zhen", "Madhura", "Kimly", "Cornelia")
-			.map(name -> new Reservation(null, name))
-			.flatMap(this.reservationRepository::save);
+			.map(name -> new Reservation(null, name));
 
 		this.reservationRepository
 			.deleteAll()
-			.thenMany(reservationFlux)
+			.then(this.reservationRepository.insertAll(reservationFlux, this.batchSize, this.parallelism))
 			.thenMany(this.reservationRepository.findAll())
 			.subscribe(log::info);
 	}
 }
 
-interface ReservationRepository extends ReactiveCrudRepository<Reservation, Integer> {
+interface ReservationRepository extends ReactiveCrudRepository<Reservation, Integer>, ReservationBulkOperations {
 
+	/**
+		* Not cached as a prepared statement: the R2DBC SPI has no way to name one, and a server-side {@code PREPARE} can
+		* only be run with {@code EXECUTE}, which takes no bind parameters, so a statement cache above the driver would
+		* have to splice the name in as a literal.
+		*/
 	@Query("select * from reservation where name = $1")
 	Flux<Reservation> findByName(String name);
+
+	@Query("select * from reservation where id > $1 order by id limit $2")
+	Flux<Reservation> findPage(int after, int limit);
+}
+
+/**
+	* Bulk writes for {@link ReservationRepository}. {@code save} costs a statement and a round trip per row,
+	* so seeding writes multi-row {@code INSERT}s instead.
+	*/
+interface ReservationBulkOperations {
+
+	/**
+		* PostgreSQL accepts at most {@value} bind parameters per statement: the count is an unsigned 16-bit field of
+		* the Bind message.
+		*/
+	int MAX_BIND_PARAMETERS = 65535;
+
+	/**
+		* Each row of {@link #insertBatch} binds only the name.
+		*/
+	int BIND_PARAMETERS_PER_ROW = 1;
+
+	int MAX_BATCH_SIZE = MAX_BIND_PARAMETERS / BIND_PARAMETERS_PER_ROW;
+
+	/**
+		* Inserts the batch as one statement and returns the generated ids in the order of the batch.
+		*/
+	Mono<List<Integer>> insertBatch(List<Reservation> batch);
+
+	/**
+		* Inserts the reservations in batches of {@code batchSize}, with up to {@code parallelism} batches in flight,
+		* and returns the number of rows written.
+		*/
+	Mono<Long> insertAll(Flux<Reservation> reservations, int batchSize, int parallelism);
+}
+
+class ReservationBulkOperationsImpl implements ReservationBulkOperations {
+
+	private final DatabaseClient databaseClient;
+
+	ReservationBulkOperationsImpl(DatabaseClient databaseClient) {
+		this.databaseClient = databaseClient;
+	}
+
+	@Override
+	public Mono<List<Integer>> insertBatch(List<Reservation> batch) {
+		Assert.isTrue(batch.size() <= MAX_BATCH_SIZE, "a batch holds at most " + MAX_BATCH_SIZE + " reservations");
+		if (batch.isEmpty()) {
+			return Mono.just(Collections.emptyList());
+		}
+		StringBuilder sql = new StringBuilder("insert into reservation (name) values ");
+		for (int i = 0; i < batch.size(); i++) {
+			sql.append(i == 0 ? "" : ", ").append("($").append(i + 1).append(')');
+		}
+		sql.append(" returning id");
+
+		DatabaseClient.GenericExecuteSpec spec = this.databaseClient.execute().sql(sql.toString());
+		for (int i = 0; i < batch.size(); i++) {
+			String name = batch.get(i).getName();
+			spec = name == null ? spec.bindNull(i, String.class) : spec.bind(i, name);
+		}
+		return spec
+			.map((row, rowMetadata) -> row.get("id", Integer.class))
+			.all()
+			.collectList();
+	}
+
+	@Override
+	public Mono<Long> insertAll(Flux<Reservation> reservations, int batchSize, int parallelism) {
+		Assert.isTrue(batchSize > 0 && batchSize <= MAX_BATCH_SIZE, "the batch size must be between 1 and " + MAX_BATCH_SIZE);
+		return reservations
+			.buffer(batchSize)
+			.flatMap(batch -> this.insertBatch(batch).map(List::size), parallelism)
+			.reduce(0L, (rows, written) -> rows + written);
+	}
 }
 
 @Data
@@ -176,5 +620,3 @@ class Reservation {
 	private String id;
 	private String name;
 }
-
-
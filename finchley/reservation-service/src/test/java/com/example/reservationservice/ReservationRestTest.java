@@ -1,11 +1,14 @@
 package com.example.reservationservice;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.WebFluxTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.MediaType;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import reactor.core.publisher.Flux;
@@ -15,6 +18,7 @@ import reactor.core.publisher.Flux;
 	*/
 @RunWith(SpringRunner.class)
 @WebFluxTest
+@Import({ReservationExport.class, ReservationPages.class, SimpleMeterRegistry.class})
 public class ReservationRestTest {
 
 	@Autowired
@@ -23,18 +27,41 @@ public class ReservationRestTest {
 	@MockBean
 	private ReservationRepository reservationRepository;
 
+	@MockBean
+	private ReservationCursor reservationCursor;
+
 	@Test
 	public void getAllReservation() throws Exception {
 
-		Mockito.when(this.reservationRepository.findAll())
-			.thenReturn(Flux.just(new Reservation("1", "Bob")));
+		Mockito.when(this.reservationCursor.stream(256))
+			.thenReturn(Flux.just(new Reservation("1", "Bob"), new Reservation("2", "Jane")));
 
 		this.webTestClient
 			.get()
 			.uri("/reservations")
 			.exchange()
 			.expectStatus().isOk()
-			.expectBody().jsonPath("@.[0].name").isEqualTo("Bob");
+			.expectHeader().contentType(MediaType.APPLICATION_JSON)
+			.expectBody()
+			.jsonPath("@.[0].name").isEqualTo("Bob")
+			.jsonPath("@.[1].name").isEqualTo("Jane");
+
+	}
+
+	@Test
+	public void getAPageOfReservations() throws Exception {
+
+		Mockito.when(this.reservationRepository.findPage(1, 1))
+			.thenReturn(Flux.just(new Reservation("2", "Jane")));
+
+		this.webTestClient
+			.get()
+			.uri("/reservations?after=1&limit=1")
+			.exchange()
+			.expectStatus().isOk()
+			.expectHeader().valueEquals(ReservationPages.NEXT_CURSOR, "2")
+			.expectBody()
+			.jsonPath("@.[0].name").isEqualTo("Jane");
 
 	}
 
@@ -3,18 +3,28 @@ package com.example.reservationservice;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.ApplicationRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.RequestPredicate;
 import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import static org.springframework.web.reactive.function.server.RequestPredicates.GET;
+import static org.springframework.web.reactive.function.server.RequestPredicates.queryParam;
 import static org.springframework.web.reactive.function.server.RouterFunctions.route;
 import static org.springframework.web.reactive.function.server.ServerResponse.ok;
 
@@ -22,18 +32,20 @@ import static org.springframework.web.reactive.function.server.ServerResponse.ok
 public class ReservationServiceApplication {
 
 		@Bean
-		RouterFunction<ServerResponse> routes(ReservationRepository rr) {
-				return route(GET("/reservations"), req -> ok().body(rr.findAll(), Reservation.class));
+		RouterFunction<ServerResponse> routes(ReservationRepository rr, ReservationPages pages) {
+				return route(GET("/reservations").and(ReservationPages.REQUESTED), pages::page)
+					.andRoute(GET("/reservations"), req -> ok().body(rr.findAll(), Reservation.class));
 		}
 
 		@Bean
-		ApplicationRunner run(ReservationRepository rr) {
+		ApplicationRunner run(ReservationRepository rr,
+			@Value("${reservations.seed.batch-size:1000}") int batchSize,
+			@Value("${reservations.seed.parallelism:4}") int parallelism) {
 				return args ->
 					rr
 						.deleteAll()
-						.thenMany(Flux.just("josh@joshlong.com", "B@b.com", "C@.com", "D@d.com")
-							.map(x -> new Reservation(null, x))
-							.flatMap(rr::save))
+						.then(rr.insertAll(Flux.just("josh@joshlong.com", "B@b.com", "C@.com", "D@d.com")
+							.map(x -> new Reservation(null, x)), batchSize, parallelism))
 						.thenMany(rr.findAll())
 						.subscribe(System.out::println);
 		}
@@ -43,9 +55,73 @@ public class ReservationServiceApplication {
 		}
 }
 
+/**
+	* Serves {@code GET /reservations?limit=&after=}: up to {@code limit} reservations (never more than
+	* {@code max-limit}) whose id is greater than {@code after}, in id order. When a page comes back full, the
+	* {@code X-Next-Cursor} header holds the {@code after} value for the next one.
+	*/
+@Component
+class ReservationPages {
+
+		static final String NEXT_CURSOR = "X-Next-Cursor";
+
+		static final RequestPredicate REQUESTED = queryParam("limit", limit -> true).or(queryParam("after", after -> true));
+
+		private final ReservationRepository reservationRepository;
+		private final int maxLimit;
+
+		ReservationPages(ReservationRepository reservationRepository,
+				@Value("${reservations.page.max-limit:1000}") int maxLimit) {
+				this.reservationRepository = reservationRepository;
+				this.maxLimit = maxLimit;
+		}
+
+		Mono<ServerResponse> page(ServerRequest request) {
+				int limit;
+				try {
+						limit = request.queryParam("limit").map(Integer::parseInt).orElse(this.maxLimit);
+				}
+				catch (NumberFormatException e) {
+						return ServerResponse.badRequest().syncBody("limit must be a number");
+				}
+				String after = request.queryParam("after").orElse(null);
+				if (limit < 1 || after != null && !ObjectId.isValid(after)) {
+						return ServerResponse.badRequest().syncBody("limit must be at least 1 and after must be a reservation id");
+				}
+				int size = Math.min(limit, this.maxLimit);
+				Pageable pageable = PageRequest.of(0, size, Sort.by("id"));
+				Flux<Reservation> reservations = after == null ?
+						this.reservationRepository.findAllBy(pageable) : this.reservationRepository.findByIdGreaterThan(after, pageable);
+				return reservations
+						.collectList()
+						.flatMap(page -> {
+								ServerResponse.BodyBuilder response = ok();
+								if (page.size() == size) {
+										response.header(NEXT_CURSOR, page.get(page.size() - 1).getId());
+								}
+								return response.syncBody(page);
+						});
+		}
+}
+
 interface ReservationRepository extends ReactiveMongoRepository<Reservation, String> {
 
 		Flux<Reservation> findByEmail(String email);
+
+		Flux<Reservation> findAllBy(Pageable pageable);
+
+		Flux<Reservation> findByIdGreaterThan(String after, Pageable pageable);
+
+		/**
+			* Inserts the reservations with one {@code insertMany} per batch of {@code batchSize}, with up to
+			* {@code parallelism} batches in flight, and returns the number of documents written.
+			*/
+		default Mono<Long> insertAll(Flux<Reservation> reservations, int batchSize, int parallelism) {
+				return reservations
+						.buffer(batchSize)
+						.flatMap(batch -> this.insert(batch).count(), parallelism)
+						.reduce(0L, (rows, written) -> rows + written);
+		}
 }
 
 @Document
@@ -4,6 +4,8 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.extern.log4j.Log4j2;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
@@ -11,14 +13,21 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.event.EventListener;
 import org.springframework.core.env.Environment;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
 import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.server.RequestPredicate;
 import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import static org.springframework.web.reactive.function.server.RequestPredicates.GET;
+import static org.springframework.web.reactive.function.server.RequestPredicates.queryParam;
 import static org.springframework.web.reactive.function.server.RouterFunctions.route;
 import static org.springframework.web.reactive.function.server.ServerResponse.ok;
 
@@ -26,10 +35,10 @@ import static org.springframework.web.reactive.function.server.ServerResponse.ok
 public class ReservationServiceApplication {
 
 	@Bean
-	RouterFunction<ServerResponse> routes(ReservationRepository rr,
-																																							Environment env) {
+	RouterFunction<ServerResponse> routes(ReservationRepository rr, ReservationPages pages, Environment env) {
 		return
-			route(GET("/reservations"), r -> ok().body(rr.findAll(), Reservation.class))
+			route(GET("/reservations").and(ReservationPages.REQUESTED), pages::page)
+				.andRoute(GET("/reservations"), r -> ok().body(rr.findAll(), Reservation.class))
 				.andRoute(GET("/message"), request -> ServerResponse.ok().syncBody(env.getProperty("message")));
 	}
 
@@ -38,26 +47,80 @@ public class ReservationServiceApplication {
 	}
 }
 
+/**
+	* Serves {@code GET /reservations?limit=&after=}: up to {@code limit} reservations (never more than
+	* {@code max-limit}) whose id is greater than {@code after}, in id order. When a page comes back full, the
+	* {@code X-Next-Cursor} header holds the {@code after} value for the next one.
+	*/
+@Component
+class ReservationPages {
+
+	static final String NEXT_CURSOR = "X-Next-Cursor";
+
+	static final RequestPredicate REQUESTED = queryParam("limit", limit -> true).or(queryParam("after", after -> true));
+
+	private final ReservationRepository reservationRepository;
+	private final int maxLimit;
+
+	ReservationPages(ReservationRepository reservationRepository,
+		@Value("${reservations.page.max-limit:1000}") int maxLimit) {
+		this.reservationRepository = reservationRepository;
+		this.maxLimit = maxLimit;
+	}
+
+	Mono<ServerResponse> page(ServerRequest request) {
+		int limit;
+		try {
+			limit = request.queryParam("limit").map(Integer::parseInt).orElse(this.maxLimit);
+		}
+		catch (NumberFormatException e) {
+			return ServerResponse.badRequest().syncBody("limit must be a number");
+		}
+		String after = request.queryParam("after").orElse(null);
+		if (limit < 1 || after != null && !ObjectId.isValid(after)) {
+			return ServerResponse.badRequest().syncBody("limit must be at least 1 and after must be a reservation id");
+		}
+		int size = Math.min(limit, this.maxLimit);
+		Pageable pageable = PageRequest.of(0, size, Sort.by("id"));
+		Flux<Reservation> reservations = after == null ?
+			this.reservationRepository.findAllBy(pageable) : this.reservationRepository.findByIdGreaterThan(after, pageable);
+		return reservations
+			.collectList()
+			.flatMap(page -> {
+				ServerResponse.BodyBuilder response = ok();
+				if (page.size() == size) {
+					response.header(NEXT_CURSOR, page.get(page.size() - 1).getId());
+				}
+				return response.syncBody(page);
+			});
+	}
+}
+
 @Log4j2
 @Component
 class Initializer {
 
 	private final ReservationRepository reservationRepository;
+	private final int batchSize;
+	private final int parallelism;
 
-	Initializer(ReservationRepository reservationRepository) {
+	Initializer(ReservationRepository reservationRepository,
+		@Value("${reservations.seed.batch-size:1000}") int batchSize,
+		@Value("${reservations.seed.parallelism:4}") int parallelism) {
 		this.reservationRepository = reservationRepository;
+		this.batchSize = batchSize;
+		this.parallelism = parallelism;
 	}
 
 	@EventListener(ApplicationReadyEvent.class)
 	public void listen() throws Exception {
 
-		Flux<Reservation> saved = Flux.just("A", "B", "C")
-			.map(nom -> new Reservation(null, nom))
-			.flatMap(this.reservationRepository::save);
+		Flux<Reservation> reservations = Flux.just("A", "B", "C")
+			.map(nom -> new Reservation(null, nom));
 
 		this.reservationRepository
 			.deleteAll()
-			.thenMany(saved)
+			.then(this.reservationRepository.insertAll(reservations, this.batchSize, this.parallelism))
 			.thenMany(this.reservationRepository.findAll())
 			.subscribe(log::info);
 	}
@@ -65,6 +128,21 @@ class Initializer {
 
 
 interface ReservationRepository extends ReactiveMongoRepository<Reservation, String> {
+
+	Flux<Reservation> findAllBy(Pageable pageable);
+
+	Flux<Reservation> findByIdGreaterThan(String after, Pageable pageable);
+
+	/**
+		* Inserts the reservations with one {@code insertMany} per batch of {@code batchSize}, with up to
+		* {@code parallelism} batches in flight, and returns the number of documents written.
+		*/
+	default Mono<Long> insertAll(Flux<Reservation> reservations, int batchSize, int parallelism) {
+		return reservations
+			.buffer(batchSize)
+			.flatMap(batch -> this.insert(batch).count(), parallelism)
+			.reduce(0L, (rows, written) -> rows + written);
+	}
 }
 
 @Document
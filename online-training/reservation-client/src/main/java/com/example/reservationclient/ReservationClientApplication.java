@@ -1,34 +1,97 @@
 package com.example.reservationclient;
 
+import com.example.rsocket.metrics.RSocketMetrics;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.ResourceLeakDetector;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Frame;
 import io.rsocket.Payload;
+import io.rsocket.RSocket;
 import io.rsocket.RSocketFactory;
+import io.rsocket.exceptions.ConnectionCloseException;
+import io.rsocket.exceptions.ConnectionErrorException;
+import io.rsocket.exceptions.Retryable;
+import io.rsocket.transport.ClientTransport;
 import io.rsocket.transport.netty.client.TcpClientTransport;
+import io.rsocket.util.ByteBufPayload;
 import io.rsocket.util.DefaultPayload;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import lombok.extern.log4j.Log4j2;
 import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscription;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
 import org.springframework.cloud.gateway.filter.ratelimit.RedisRateLimiter;
 import org.springframework.cloud.gateway.route.RouteLocator;
 import org.springframework.cloud.gateway.route.builder.RouteLocatorBuilder;
-import org.springframework.cloud.netflix.hystrix.HystrixCommands;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.event.EventListener;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.security.config.web.server.ServerHttpSecurity;
 import org.springframework.security.core.userdetails.MapReactiveUserDetailsService;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.web.server.SecurityWebFilterChain;
 import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.server.RouterFunction;
 import org.springframework.web.reactive.function.server.ServerResponse;
+import reactor.core.Disposable;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.DirectProcessor;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Operators;
 
+import javax.annotation.PreDestroy;
+import reactor.util.function.Tuple2;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static org.springframework.web.reactive.function.server.RequestPredicates.GET;
 import static org.springframework.web.reactive.function.server.RouterFunctions.route;
@@ -44,16 +107,12 @@ public class ReservationClientApplication {
 	RouterFunction<ServerResponse> routes(ReservationClient client) {
 		return route(GET("/reservations/names"), serverRequest -> {
 
+			// no HystrixCommands here: its command subscribes with an unbounded request, so neither AdaptiveDemand
+			// nor ReservationCoalescing would ever see how fast the response is actually written
 			Flux<String> names = client
 				.getAllReservations()
-				.map(Reservation::getName);
-
-			Publisher<String> cb = HystrixCommands
-				.from(names)
-				.eager()
-				.commandName("names")
-				.fallback(Flux.just("EEK!"))
-				.build();
+				.map(Reservation::getName)
+				.onErrorResume(e -> Flux.just("EEK!"));
 
 
 		/*	// hedging
@@ -72,8 +131,21 @@ public class ReservationClientApplication {
 
 			}
 */
-			return ServerResponse.ok().body(cb, String.class);
-		});
+			return ServerResponse.ok().body(names, String.class);
+		})
+			.andRoute(GET("/reservations/{id}"), serverRequest -> {
+				Integer id;
+				try {
+					id = Integer.valueOf(serverRequest.pathVariable("id"));
+				}
+				catch (NumberFormatException e) {
+					return ServerResponse.badRequest().build();
+				}
+				return client
+					.getReservationById(id)
+					.flatMap(reservation -> ServerResponse.ok().syncBody(reservation))
+					.switchIfEmpty(ServerResponse.notFound().build());
+			});
 	}
 
 	@Bean
@@ -99,6 +171,11 @@ public class ReservationClientApplication {
 		return http.build();
 	}
 
+	@Bean
+	RSocketMetrics rSocketMetrics(MeterRegistry registry) {
+		return new RSocketMetrics(registry, "client");
+	}
+
 	@Bean
 	RedisRateLimiter redisRateLimiter() {
 		return new RedisRateLimiter(5, 7);
@@ -139,37 +216,1256 @@ class ReservationClient {
 	}
 }*/
 
+/**
+	* Reads reservations from the reservation-service instances picked by the {@link ReservationLoadBalancer}.
+	* If the connection drops mid-stream the client reconnects with exponential
+	* backoff and asks for the rows {@code after} the last one it delivered, so the stream continues
+	* where it stopped rather than starting over.
+	*
+	* <p>Lookups by id ({@code GET /reservations/{id}}) go through the {@link ReservationNearCache}. The full list is never cached, since that would
+	* hold the whole table in memory; it is streamed, and loads of it that arrive close together share one upstream
+	* stream (see {@link ReservationCoalescing}).
+	*/
 @Component
 class ReservationClient {
 
-	private final TcpClientTransport tcpClientTransport = TcpClientTransport.create(7000);
+	private final ReservationLoadBalancer loadBalancer;
+	private final ReservationNearCache nearCache;
+	private final AdaptiveDemand adaptiveDemand;
+	private final ReservationHedging hedging;
+	private final ReservationCoalescing coalescing;
+	private final ReservationCodec codec;
+	private final boolean batched;
+	private final ObjectMapper objectMapper;
+	private final int maxReconnectAttempts;
+	private final Duration firstBackoff;
+	private final Duration maxBackoff;
 
-	ReservationClient(ObjectMapper objectMapper) {
+	ReservationClient(ReservationLoadBalancer loadBalancer, ReservationNearCache nearCache, AdaptiveDemand adaptiveDemand, ReservationHedging hedging,
+		ReservationCoalescing coalescing, ReservationConnections connections, ObjectMapper objectMapper,
+		@Value("${reservations.rsocket.resume.max-attempts:5}") int maxReconnectAttempts,
+		@Value("${reservations.rsocket.resume.first-backoff:100ms}") Duration firstBackoff,
+		@Value("${reservations.rsocket.resume.max-backoff:5s}") Duration maxBackoff) {
+		this.loadBalancer = loadBalancer;
+		this.nearCache = nearCache;
+		this.adaptiveDemand = adaptiveDemand;
+		this.hedging = hedging;
+		this.coalescing = coalescing;
+		this.codec = connections.codec();
+		this.batched = connections.batched();
 		this.objectMapper = objectMapper;
+		this.maxReconnectAttempts = maxReconnectAttempts;
+		this.firstBackoff = firstBackoff;
+		this.maxBackoff = maxBackoff;
 	}
 
 	Flux<Reservation> getAllReservations() {
-		return RSocketFactory
+		return this.adaptiveDemand.apply("reservations", this.coalescing.coalesce(this::resumableStream));
+	}
+
+	Mono<Reservation> getReservationById(Integer id) {
+		return this.nearCache.get(id, () -> this.lookup(id));
+	}
+
+	private Flux<Reservation> resumableStream() {
+		AtomicReference<Integer> lastDelivered = new AtomicReference<>();
+		AtomicInteger attempts = new AtomicInteger();
+		return Flux
+			.defer(() -> this.stream(lastDelivered.get()))
+			.doOnNext(reservation -> {
+				lastDelivered.set(reservation.getId());
+				attempts.set(0);
+			})
+			.retryWhen(errors -> errors.concatMap(error -> {
+				int attempt = attempts.incrementAndGet();
+				if (!this.isRetryable(error) || attempt > this.maxReconnectAttempts) {
+					return Mono.error(error);
+				}
+				return Mono.delay(this.backoff(attempt));
+			}));
+	}
+
+	private Mono<Reservation> lookup(Integer id) {
+		return this.loadBalancer
+			.execute(rs -> rs.requestResponse(ByteBufPayload.create(this.codec.encode(ByteBufAllocator.DEFAULT, new Reservation(id, null)))))
+			.next()
+			.map(this.codec::decodeAndRelease);
+	}
+
+	private Flux<Reservation> stream(Integer after) {
+		Flux<Payload> payloads = this.loadBalancer
+			.executeHedged(rs -> rs.requestStream(this.request(after)), this.hedging);
+		return this.batched
+			? payloads.concatMapIterable(payload -> ReservationBatches.unpack(this.codec, payload), 2)
+			: payloads.map(this.codec::decodeAndRelease);
+	}
+
+	private Payload request(Integer after) {
+		if (after == null) {
+			return DefaultPayload.create(new byte[0]);
+		}
+		try {
+			return DefaultPayload.create(this.objectMapper.writeValueAsBytes(new ReservationQuery(null, after, null)));
+		}
+		catch (JsonProcessingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private boolean isRetryable(Throwable error) {
+		return error instanceof IOException
+			|| error instanceof ConnectionErrorException
+			|| error instanceof ConnectionCloseException
+			|| error instanceof Retryable;
+	}
+
+	private Duration backoff(int attempt) {
+		Duration backoff = this.firstBackoff.multipliedBy(1L << Math.min(attempt - 1, 30));
+		return backoff.compareTo(this.maxBackoff) > 0 ? this.maxBackoff : backoff;
+	}
+}
+
+/**
+	* Lets loads of the full list that arrive within {@code reservations.coalescing.window} of each other share one
+	* upstream stream. The first caller starts it, published with a prefetch of {@code reservations.coalescing.prefetch}
+	* so that it never runs more than that far ahead of its slowest subscriber, and later callers join it until it emits
+	* its first reservation. Anyone later than that, and anyone who joined just as the first reservation went past,
+	* starts a stream of their own. The upstream is cancelled only once every subscriber has cancelled.
+	*/
+@Component
+class ReservationCoalescing {
+
+	private final long window;
+	private final int prefetch;
+	private final AtomicReference<Flight> inFlight = new AtomicReference<>();
+	private final Counter leaders;
+	private final Counter followers;
+
+	ReservationCoalescing(MeterRegistry registry,
+		@Value("${reservations.coalescing.window:100ms}") Duration window,
+		@Value("${reservations.coalescing.prefetch:256}") int prefetch) {
+		this.window = window.toNanos();
+		this.prefetch = prefetch;
+		this.leaders = Counter.builder("reservations.coalescing.calls")
+			.description("calls to getAllReservations, by whether they started the upstream stream or joined one")
+			.tag("role", "leader")
+			.register(registry);
+		this.followers = Counter.builder("reservations.coalescing.calls")
+			.description("calls to getAllReservations, by whether they started the upstream stream or joined one")
+			.tag("role", "follower")
+			.register(registry);
+		Gauge.builder("reservations.coalescing.ratio", this, ReservationCoalescing::ratio)
+			.description("calls per upstream stream")
+			.register(registry);
+	}
+
+	Flux<Reservation> coalesce(Supplier<Flux<Reservation>> upstream) {
+		return Flux.defer(() -> {
+			long now = System.nanoTime();
+			while (true) {
+				Flight current = this.inFlight.get();
+				if (current != null && !current.started && now - current.startedAt < this.window) {
+					return this.follow(current)
+						.onErrorResume(MissedStart.class, e -> {
+							this.leaders.increment();
+							return upstream.get();
+						});
+				}
+				Flight flight = new Flight(now);
+				flight.reservations = upstream.get()
+					.index()
+					.doOnNext(indexed -> flight.started = true)
+					.doFinally(signal -> this.inFlight.compareAndSet(flight, null))
+					.publish(this.prefetch)
+					.refCount();
+				if (this.inFlight.compareAndSet(current, flight)) {
+					this.leaders.increment();
+					return flight.reservations.map(Tuple2::getT2);
+				}
+			}
+		});
+	}
+
+	/**
+		* Joins {@code flight}, counting the caller as a follower only once it has seen the first reservation (or the
+		* end of an empty stream), since one that missed it starts a stream of its own.
+		*/
+	private Flux<Reservation> follow(Flight flight) {
+		AtomicBoolean first = new AtomicBoolean(true);
+		return flight.reservations
+			.<Reservation>handle((indexed, sink) -> {
+				if (first.compareAndSet(true, false)) {
+					if (indexed.getT1() != 0) {
+						sink.error(new MissedStart());
+						return;
+					}
+					this.followers.increment();
+				}
+				sink.next(indexed.getT2());
+			})
+			.doOnComplete(() -> {
+				if (first.compareAndSet(true, false)) {
+					this.followers.increment();
+				}
+			});
+	}
+
+	double ratio() {
+		double leaders = this.leaders.count();
+		return leaders == 0 ? 0 : (leaders + this.followers.count()) / leaders;
+	}
+
+	/**
+		* One coalesced stream, numbered so that a follower can tell whether it saw the first reservation.
+		*/
+	private static class Flight {
+
+		private final long startedAt;
+		private volatile boolean started;
+		private Flux<Tuple2<Long, Reservation>> reservations;
+
+		Flight(long startedAt) {
+			this.startedAt = startedAt;
+		}
+	}
+
+	/**
+		* A follower subscribed after the stream it joined had moved past its first reservation.
+		*/
+	private static class MissedStart extends RuntimeException {
+
+		MissedStart() {
+			super(null, null, false, false);
+		}
+	}
+}
+
+/**
+	* Sizes the {@code request(n)} batches a reservation stream asks of its upstream from how fast the consumer drains it
+	* and how long the upstream takes to answer a request, instead of using a fixed prefetch. The batch is the consumer's
+	* drain rate multiplied by the observed round trip (so that a new batch arrives just as the previous one is consumed),
+	* clamped to {@code reservations.demand.floor} and {@code reservations.demand.ceiling}. A new batch is only asked
+	* for once the consumer has room for more than is already in flight, so a slow consumer never has more than one
+	* small batch buffered for it. It has to sit right where the consumer's demand arrives: upstream of an operator
+	* that requests everything up front it would only ever see unbounded demand.
+	*/
+@Component
+class AdaptiveDemand {
+
+	private final MeterRegistry registry;
+	private final int floor;
+	private final int ceiling;
+	private final Map<String, AtomicLong> lastBatch = new ConcurrentHashMap<>();
+
+	AdaptiveDemand(MeterRegistry registry,
+		@Value("${reservations.demand.floor:8}") int floor,
+		@Value("${reservations.demand.ceiling:512}") int ceiling) {
+		this.registry = registry;
+		this.floor = floor;
+		this.ceiling = ceiling;
+	}
+
+	<T> Flux<T> apply(String stream, Flux<T> upstream) {
+		AtomicLong batch = this.lastBatch.computeIfAbsent(stream, key -> {
+			AtomicLong value = new AtomicLong(this.floor);
+			Gauge.builder("reservations.demand.batch", value, AtomicLong::get)
+				.description("the request(n) most recently chosen for the stream")
+				.tag("stream", key)
+				.register(this.registry);
+			return value;
+		});
+		DistributionSummary batches = DistributionSummary.builder("reservations.demand.requested")
+			.description("the request(n) batches chosen for the stream")
+			.tag("stream", stream)
+			.register(this.registry);
+		return Flux.create(sink -> upstream.subscribe(new Controller<>(sink, batch, batches)));
+	}
+
+	private class Controller<T> extends BaseSubscriber<T> {
+
+		private static final double WEIGHT = 0.2;
+
+		private final FluxSink<T> sink;
+		private final AtomicLong lastBatch;
+		private final DistributionSummary batches;
+		private long downstreamRequested;
+		private long upstreamRequested;
+		private long received;
+		private long lastDownstreamRequestAt = System.nanoTime();
+		private long upstreamRequestAt;
+		private long timedItem;
+		private double drainRate;
+		private double roundTrip;
+
+		Controller(FluxSink<T> sink, AtomicLong lastBatch, DistributionSummary batches) {
+			this.sink = sink;
+			this.lastBatch = lastBatch;
+			this.batches = batches;
+			sink.onRequest(this::downstreamRequest);
+			sink.onDispose(this);
+		}
+
+		@Override
+		protected void hookOnSubscribe(Subscription subscription) {
+			this.requestUpstream();
+		}
+
+		@Override
+		protected void hookOnNext(T value) {
+			synchronized (this) {
+				this.received++;
+				if (this.timedItem != 0 && this.received >= this.timedItem) {
+					this.timedItem = 0;
+					this.roundTrip = this.average(this.roundTrip, System.nanoTime() - this.upstreamRequestAt);
+				}
+			}
+			this.sink.next(value);
+			this.requestUpstream();
+		}
+
+		@Override
+		protected void hookOnComplete() {
+			this.sink.complete();
+		}
+
+		@Override
+		protected void hookOnError(Throwable throwable) {
+			this.sink.error(throwable);
+		}
+
+		private void downstreamRequest(long n) {
+			synchronized (this) {
+				long now = System.nanoTime();
+				long elapsed = Math.max(now - this.lastDownstreamRequestAt, 1);
+				this.lastDownstreamRequestAt = now;
+				this.drainRate = n == Long.MAX_VALUE ? Double.POSITIVE_INFINITY : this.average(this.drainRate, (double) n / elapsed);
+				this.downstreamRequested = Operators.addCap(this.downstreamRequested, n);
+			}
+			this.requestUpstream();
+		}
+
+		private void requestUpstream() {
+			long batch;
+			synchronized (this) {
+				if (this.upstream() == null) {
+					return;
+				}
+				long inFlight = this.upstreamRequested - this.received;
+				long room = this.downstreamRequested - this.received;
+				if (room <= inFlight) {
+					return;
+				}
+				batch = this.batch();
+				if (inFlight > batch / 2) {
+					return;
+				}
+				if (this.timedItem == 0) {
+					this.timedItem = this.upstreamRequested + 1;
+					this.upstreamRequestAt = System.nanoTime();
+				}
+				this.upstreamRequested += batch;
+			}
+			this.lastBatch.set(batch);
+			this.batches.record(batch);
+			this.request(batch);
+		}
+
+		private long batch() {
+			double wanted = this.roundTrip == 0 ? floor : Math.ceil(this.drainRate * this.roundTrip);
+			return (long) Math.max(floor, Math.min(ceiling, wanted));
+		}
+
+		private double average(double average, double sample) {
+			return average == 0 || Double.isInfinite(average) ? sample : average + WEIGHT * (sample - average);
+		}
+	}
+}
+
+/**
+	* A bounded, least-recently-used near cache for the reservations {@link ReservationClient} looks up by id.
+	* An entry younger than {@code ttl - refresh-ahead} is served as is; one in its last {@code refresh-ahead} is
+	* still served but reloaded in the background, and one up to {@code stale-while-revalidate} past its {@code ttl}
+	* is served stale while it reloads. Older entries, and misses, wait for the load, which is shared by every
+	* concurrent caller. Entries are dropped as soon as a {@link ReservationChanges change} mentions them, and
+	* the whole cache is cleared when a change doesn't say which reservations changed.
+	*/
+@Log4j2
+@Component
+class ReservationNearCache {
+
+	private final Map<Object, Entry> entries;
+	private final Map<Object, Mono<Object>> loads = new ConcurrentHashMap<>();
+	private final long refreshAfter;
+	private final long ttl;
+	private final long staleUntil;
+	private final AtomicLong generation = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong staleHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong refreshes = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final Disposable invalidations;
+
+	ReservationNearCache(ReservationChanges changes, MeterRegistry registry,
+		@Value("${reservations.near-cache.max-size:10000}") int maxSize,
+		@Value("${reservations.near-cache.ttl:30s}") Duration ttl,
+		@Value("${reservations.near-cache.refresh-ahead:5s}") Duration refreshAhead,
+		@Value("${reservations.near-cache.stale-while-revalidate:30s}") Duration staleWhileRevalidate) {
+		this.ttl = ttl.toNanos();
+		this.refreshAfter = this.ttl - Math.min(refreshAhead.toNanos(), this.ttl);
+		this.staleUntil = this.ttl + staleWhileRevalidate.toNanos();
+		this.entries = new LinkedHashMap<Object, Entry>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Object, Entry> eldest) {
+				boolean evict = size() > maxSize;
+				if (evict) {
+					evictions.incrementAndGet();
+				}
+				return evict;
+			}
+		};
+		FunctionCounter.builder("reservations.near-cache.hits", this.hits, AtomicLong::get).register(registry);
+		FunctionCounter.builder("reservations.near-cache.stale-hits", this.staleHits, AtomicLong::get).register(registry);
+		FunctionCounter.builder("reservations.near-cache.misses", this.misses, AtomicLong::get).register(registry);
+		FunctionCounter.builder("reservations.near-cache.refreshes", this.refreshes, AtomicLong::get).register(registry);
+		FunctionCounter.builder("reservations.near-cache.evictions", this.evictions, AtomicLong::get).register(registry);
+		Gauge.builder("reservations.near-cache.size", this, ReservationNearCache::size).register(registry);
+		this.invalidations = changes.changes().subscribe(this::invalidate);
+	}
+
+	@PreDestroy
+	void stop() {
+		this.invalidations.dispose();
+	}
+
+	@SuppressWarnings("unchecked")
+	<T> Mono<T> get(Object key, Supplier<Mono<T>> loader) {
+		return Mono.defer(() -> {
+			Entry entry;
+			synchronized (this.entries) {
+				entry = this.entries.get(key);
+			}
+			long age = entry == null ? 0 : System.nanoTime() - entry.loadedAt;
+			if (entry != null && age < this.staleUntil) {
+				if (age >= this.ttl) {
+					this.staleHits.incrementAndGet();
+				}
+				else {
+					this.hits.incrementAndGet();
+				}
+				if (age >= this.refreshAfter) {
+					this.refresh(key, loader);
+				}
+				return Mono.just((T) entry.value);
+			}
+			this.misses.incrementAndGet();
+			return this.load(key, loader);
+		});
+	}
+
+	private <T> void refresh(Object key, Supplier<Mono<T>> loader) {
+		if (this.loads.containsKey(key)) {
+			return;
+		}
+		this.refreshes.incrementAndGet();
+		this.load(key, loader).subscribe(value -> {
+		}, e -> log.warn("couldn't refresh " + key + ", serving the cached value until it expires", e));
+	}
+
+	/**
+		* Loads {@code key}, sharing the load with every concurrent caller. Only a value that actually arrives is
+		* stored, so a failed or empty load leaves no entry behind to take up room in the cache.
+		*/
+	@SuppressWarnings("unchecked")
+	private <T> Mono<T> load(Object key, Supplier<Mono<T>> loader) {
+		return (Mono<T>) this.loads.computeIfAbsent(key, k -> {
+			long generation = this.generation.get();
+			AtomicReference<Mono<Object>> load = new AtomicReference<>();
+			load.set(loader.get()
+				.doOnNext(value -> this.store(k, value, generation))
+				.doFinally(signal -> this.loads.remove(k, load.get()))
+				.cast(Object.class)
+				.cache());
+			return load.get();
+		});
+	}
+
+	private void store(Object key, Object value, long generation) {
+		synchronized (this.entries) {
+			if (this.generation.get() == generation) {
+				this.entries.put(key, new Entry(value, System.nanoTime()));
+			}
+		}
+	}
+
+	private void invalidate(ReservationChange change) {
+		synchronized (this.entries) {
+			this.generation.incrementAndGet();
+			if (change.getIds() == null) {
+				this.entries.clear();
+			}
+			else {
+				change.getIds().forEach(this.entries::remove);
+			}
+		}
+	}
+
+	int size() {
+		synchronized (this.entries) {
+			return this.entries.size();
+		}
+	}
+
+	private static class Entry {
+
+		private final Object value;
+		private final long loadedAt;
+
+		Entry(Object value, long loadedAt) {
+			this.value = value;
+			this.loadedAt = loadedAt;
+		}
+	}
+}
+
+/**
+	* Spreads RSocket requests across the reservation-service instances known to the {@link DiscoveryClient}.
+	* Every instance gets its own lazily established {@link ReservationConnection} on the port advertised
+	* in its {@code rsocket-port} metadata. Each request goes to the cheaper of two randomly chosen
+	* instances (power of two choices), where cost is the peak-sensitive moving average of the instance's
+	* latency multiplied by its outstanding requests. The instance list is refreshed periodically; instances that
+	* leave stop receiving new requests and their connection is closed once their in-flight streams have drained.
+	* A request that picked an instance just as it left goes to another one instead.
+	*/
+@Log4j2
+@Component
+class ReservationLoadBalancer {
+
+	private final DiscoveryClient discoveryClient;
+	private final ReservationConnections connections;
+	private final String serviceId;
+	private final Duration refreshInterval;
+	private final Duration initialLatency;
+	private final Duration decay;
+	private final Map<String, WeightedConnection> active = new ConcurrentHashMap<>();
+	private final Set<WeightedConnection> draining = ConcurrentHashMap.newKeySet();
+	private volatile Disposable refresh;
+
+	ReservationLoadBalancer(DiscoveryClient discoveryClient, ReservationConnections connections, MeterRegistry registry,
+		@Value("${reservations.rsocket.service-id:reservation-service}") String serviceId,
+		@Value("${reservations.rsocket.load-balancer.refresh-interval:10s}") Duration refreshInterval,
+		@Value("${reservations.rsocket.load-balancer.initial-latency:10ms}") Duration initialLatency,
+		@Value("${reservations.rsocket.load-balancer.decay:10s}") Duration decay) {
+		this.discoveryClient = discoveryClient;
+		this.connections = connections;
+		this.serviceId = serviceId;
+		this.refreshInterval = refreshInterval;
+		this.initialLatency = initialLatency;
+		this.decay = decay;
+		Gauge.builder("rsocket.load-balancer.instances", this.active, Map::size)
+			.tag("service", serviceId)
+			.register(registry);
+		Gauge.builder("rsocket.load-balancer.draining", this.draining, Set::size)
+			.tag("service", serviceId)
+			.register(registry);
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void start() {
+		this.refresh();
+		this.refresh = Flux
+			.interval(this.refreshInterval, this.refreshInterval)
+			.subscribe(tick -> this.refresh());
+	}
+
+	@PreDestroy
+	void stop() {
+		if (this.refresh != null) {
+			this.refresh.dispose();
+		}
+		this.active.values().forEach(WeightedConnection::dispose);
+		this.draining.forEach(WeightedConnection::dispose);
+	}
+
+	/**
+		* Runs the interaction against the cheaper of two candidate instances, tracking its latency and
+		* keeping the instance's outstanding count up to date until the interaction terminates.
+		*/
+	<T> Flux<T> execute(Function<RSocket, Publisher<T>> interaction) {
+		return Flux.<T>defer(() -> {
+			WeightedConnection connection = this.select(null);
+			if (connection == null) {
+				return Flux.error(new IllegalStateException("no " + this.serviceId + " instances available"));
+			}
+			return connection.execute(interaction);
+		})
+			.onErrorResume(Departed.class, e -> this.execute(interaction));
+	}
+
+	/**
+		* Like {@link #execute(Function)}, but if nothing has arrived once the hedging delay has passed (and the hedging
+		* budget allows it) the interaction is also sent to a different instance. Whichever emits first wins and the
+		* other is cancelled. A hedge that fails is ignored, so it can never turn a slow success into a failure.
+		*/
+	<T> Flux<T> executeHedged(Function<RSocket, Publisher<T>> interaction, ReservationHedging hedging) {
+		if (!hedging.isEnabled()) {
+			return this.execute(interaction);
+		}
+		return Flux.defer(() -> {
+			WeightedConnection primary = this.select(null);
+			if (primary == null) {
+				return Flux.error(new IllegalStateException("no " + this.serviceId + " instances available"));
+			}
+			long start = System.nanoTime();
+			hedging.deposit();
+			Flux<T> hedge = Mono
+				.delay(hedging.delay())
+				.flatMapMany(tick -> {
+					WeightedConnection secondary = this.select(primary);
+					if (secondary == null || !hedging.tryHedge()) {
+						return Flux.<T>never();
+					}
+					return secondary
+						.execute(interaction)
+						.onErrorResume(e -> Flux.never())
+						.doOnNext(new FirstOnly<>(value -> hedging.hedgeWon()));
+				});
+			return Flux
+				.first(primary.execute(interaction), hedge)
+				.doOnNext(new FirstOnly<>(value -> hedging.recordFirstPayload(System.nanoTime() - start)));
+		})
+			.onErrorResume(Departed.class, e -> this.executeHedged(interaction, hedging));
+	}
+
+	private WeightedConnection select(WeightedConnection excluded) {
+		List<WeightedConnection> candidates = new ArrayList<>(this.active.values());
+		candidates.remove(excluded);
+		int size = candidates.size();
+		if (size < 2) {
+			return size == 0 ? null : candidates.get(0);
+		}
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		int first = random.nextInt(size);
+		int second = random.nextInt(size - 1);
+		if (second >= first) {
+			second++;
+		}
+		WeightedConnection a = candidates.get(first);
+		WeightedConnection b = candidates.get(second);
+		return a.cost() <= b.cost() ? a : b;
+	}
+
+	void refresh() {
+		try {
+			Map<String, ServiceInstance> discovered = new HashMap<>();
+			for (ServiceInstance instance : this.discoveryClient.getInstances(this.serviceId)) {
+				discovered.put(instance.getHost() + ':' + this.rSocketPort(instance), instance);
+			}
+			discovered.forEach((address, instance) -> this.active.computeIfAbsent(address, key -> {
+				log.info("adding " + this.serviceId + " instance " + key);
+				ReservationConnection connection = this.connections.create(TcpClientTransport.create(instance.getHost(), this.rSocketPort(instance)));
+				return new WeightedConnection(key, connection);
+			}));
+			this.active.keySet().removeIf(address -> {
+				if (discovered.containsKey(address)) {
+					return false;
+				}
+				log.info("draining " + this.serviceId + " instance " + address);
+				this.draining.add(this.active.get(address));
+				return true;
+			});
+			this.draining.removeIf(WeightedConnection::disposeIfIdle);
+		}
+		catch (RuntimeException e) {
+			log.warn("could not refresh the " + this.serviceId + " instances", e);
+		}
+	}
+
+	private int rSocketPort(ServiceInstance instance) {
+		return Integer.parseInt(instance.getMetadata().getOrDefault("rsocket-port", "7000"));
+	}
+
+	private class WeightedConnection {
+
+		private final String address;
+		private final ReservationConnection connection;
+		private final AtomicInteger outstanding = new AtomicInteger();
+		private long cost = initialLatency.toNanos();
+		private long stamp = System.nanoTime();
+
+		WeightedConnection(String address, ReservationConnection connection) {
+			this.address = address;
+			this.connection = connection;
+		}
+
+		<T> Flux<T> execute(Function<RSocket, Publisher<T>> interaction) {
+			return Flux.defer(() -> {
+				long start = System.nanoTime();
+				AtomicBoolean observed = new AtomicBoolean();
+				Runnable observe = () -> {
+					if (observed.compareAndSet(false, true)) {
+						this.observe(System.nanoTime() - start);
+					}
+				};
+				this.outstanding.incrementAndGet();
+				if (active.get(this.address) != this) {
+					// refresh() started draining this instance after select() picked it, possibly without seeing the
+					// increment, so the connection may already be closed
+					this.release();
+					return Flux.error(new Departed());
+				}
+				return this.connection
+					.rSocket()
+					.flatMapMany(interaction)
+					.doOnNext(value -> observe.run())
+					.doOnTerminate(observe)
+					.doFinally(signal -> this.release());
+			});
+		}
+
+		private void release() {
+			this.outstanding.decrementAndGet();
+			if (draining.contains(this) && this.disposeIfIdle()) {
+				draining.remove(this);
+			}
+		}
+
+		/**
+			* Peak-sensitive EWMA: a slower-than-average observation replaces the average outright, faster ones
+			* are blended in with a weight that grows with the time since the last observation.
+			*/
+		private synchronized void observe(long latency) {
+			long now = System.nanoTime();
+			if (latency > this.cost) {
+				this.cost = latency;
+			}
+			else {
+				double weight = Math.exp(-(double) (now - this.stamp) / decay.toNanos());
+				this.cost = (long) (this.cost * weight + latency * (1 - weight));
+			}
+			this.stamp = now;
+		}
+
+		synchronized double cost() {
+			return (double) this.cost * (this.outstanding.get() + 1);
+		}
+
+		boolean disposeIfIdle() {
+			if (this.outstanding.get() > 0) {
+				return false;
+			}
+			log.info("closing drained " + serviceId + " instance " + this.address);
+			this.dispose();
+			return true;
+		}
+
+		void dispose() {
+			this.connection.dispose();
+		}
+	}
+
+	/**
+		* The instance a request picked left before the request started, so it should pick again.
+		*/
+	private static class Departed extends RuntimeException {
+
+		Departed() {
+			super(null, null, false, false);
+		}
+	}
+}
+
+/**
+	* Decides when {@link ReservationLoadBalancer#executeHedged(Function, ReservationHedging)} sends a second copy of a request.
+	* The hedging delay is either fixed ({@code reservations.hedging.delay}) or the observed 95th percentile of the time
+	* to the first payload, but never less than {@code reservations.hedging.min-delay}. Hedges are paid for from a budget:
+	* every request adds {@code reservations.hedging.budget} (0.05, i.e. at most 5% extra load) to a balance capped at
+	* {@code reservations.hedging.max-burst}, and every hedge spends one. So when everything is slow, as in an outage,
+	* hedging stops instead of doubling the load.
+	*/
+@Component
+class ReservationHedging {
+
+	private final boolean enabled;
+	private final Duration fixedDelay;
+	private final Duration minDelay;
+	private final double budget;
+	private final double maxBurst;
+	private final Timer firstPayload;
+	private final Counter hedged;
+	private final Counter throttled;
+	private final Counter won;
+	private double balance;
+
+	ReservationHedging(MeterRegistry registry,
+		@Value("${reservations.hedging.enabled:true}") boolean enabled,
+		@Value("${reservations.hedging.delay:#{null}}") Duration fixedDelay,
+		@Value("${reservations.hedging.min-delay:20ms}") Duration minDelay,
+		@Value("${reservations.hedging.budget:0.05}") double budget,
+		@Value("${reservations.hedging.max-burst:10}") double maxBurst) {
+		this.enabled = enabled;
+		this.fixedDelay = fixedDelay;
+		this.minDelay = minDelay;
+		this.budget = budget;
+		this.maxBurst = maxBurst;
+		this.firstPayload = Timer.builder("reservations.hedging.first-payload")
+			.description("time until the first payload of a possibly hedged request")
+			.publishPercentiles(0.95)
+			.register(registry);
+		this.hedged = Counter.builder("reservations.hedging.hedges").tag("outcome", "sent").register(registry);
+		this.throttled = Counter.builder("reservations.hedging.hedges").tag("outcome", "throttled").register(registry);
+		this.won = Counter.builder("reservations.hedging.hedges").tag("outcome", "won").register(registry);
+	}
+
+	boolean isEnabled() {
+		return this.enabled;
+	}
+
+	Duration delay() {
+		if (this.fixedDelay != null) {
+			return this.fixedDelay;
+		}
+		for (ValueAtPercentile percentile : this.firstPayload.takeSnapshot().percentileValues()) {
+			if (percentile.percentile() == 0.95) {
+				long p95 = (long) percentile.value(TimeUnit.NANOSECONDS);
+				return p95 > this.minDelay.toNanos() ? Duration.ofNanos(p95) : this.minDelay;
+			}
+		}
+		return this.minDelay;
+	}
+
+	synchronized void deposit() {
+		this.balance = Math.min(this.maxBurst, this.balance + this.budget);
+	}
+
+	boolean tryHedge() {
+		synchronized (this) {
+			if (this.balance < 1) {
+				this.throttled.increment();
+				return false;
+			}
+			this.balance -= 1;
+		}
+		this.hedged.increment();
+		return true;
+	}
+
+	void hedgeWon() {
+		this.won.increment();
+	}
+
+	void recordFirstPayload(long nanos) {
+		this.firstPayload.record(nanos, TimeUnit.NANOSECONDS);
+	}
+}
+
+/**
+	* Runs the callback for the first value only.
+	*/
+class FirstOnly<T> implements Consumer<T> {
+
+	private final AtomicBoolean seen = new AtomicBoolean();
+	private final Consumer<T> callback;
+
+	FirstOnly(Consumer<T> callback) {
+		this.callback = callback;
+	}
+
+	@Override
+	public void accept(T value) {
+		if (this.seen.compareAndSet(false, true)) {
+			this.callback.accept(value);
+		}
+	}
+}
+
+/**
+	* Builds {@link ReservationConnection}s that all share the same setup: the negotiated data MIME type,
+	* keepalive, the metrics plugins and the acceptor that feeds server-pushed changes into {@link ReservationChanges}.
+	* With {@code reservations.rsocket.batch.max-items} set the client asks for streams to arrive as {@link ReservationBatches batches},
+	* and {@code reservations.rsocket.fragment-mtu} splits frames larger than that many bytes into fragments.
+	* Frames are handed to the application as the retained network buffers rather than heap copies, so every
+	* payload must be released once decoded; {@code reservations.rsocket.leak-detection} (e.g. {@code paranoid})
+	* raises Netty's leak detection level to catch a payload that is not.
+	*/
+@Component
+class ReservationConnections {
+
+	private final ReservationCodec codec;
+	private final ReservationChanges changes;
+	private final RSocketMetrics metrics;
+	private final Duration keepAliveInterval;
+	private final Duration keepAliveAckTimeout;
+	private final int maxConnectAttempts;
+	private final Duration firstBackoff;
+	private final Duration maxBackoff;
+	private final int batchItems;
+	private final int fragmentMtu;
+
+	ReservationConnections(ReservationCodecs codecs, ReservationChanges changes, RSocketMetrics metrics,
+		@Value("${reservations.rsocket.data-mime-type:" + BinaryReservationCodec.MIME_TYPE + "}") String dataMimeType,
+		@Value("${reservations.rsocket.keep-alive.interval:20s}") Duration keepAliveInterval,
+		@Value("${reservations.rsocket.keep-alive.ack-timeout:90s}") Duration keepAliveAckTimeout,
+		@Value("${reservations.rsocket.connect.max-attempts:10}") int maxConnectAttempts,
+		@Value("${reservations.rsocket.connect.first-backoff:100ms}") Duration firstBackoff,
+		@Value("${reservations.rsocket.connect.max-backoff:10s}") Duration maxBackoff,
+		@Value("${reservations.rsocket.leak-detection:}") String leakDetection,
+		@Value("${reservations.rsocket.batch.max-items:0}") int batchItems,
+		@Value("${reservations.rsocket.fragment-mtu:0}") int fragmentMtu) {
+		if (StringUtils.hasText(leakDetection)) {
+			ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.valueOf(leakDetection.trim().toUpperCase()));
+		}
+		this.codec = codecs.forMimeType(dataMimeType);
+		this.changes = changes;
+		this.metrics = metrics;
+		this.keepAliveInterval = keepAliveInterval;
+		this.keepAliveAckTimeout = keepAliveAckTimeout;
+		this.maxConnectAttempts = maxConnectAttempts;
+		this.firstBackoff = firstBackoff;
+		this.maxBackoff = maxBackoff;
+		this.batchItems = batchItems;
+		this.fragmentMtu = fragmentMtu;
+	}
+
+	ReservationCodec codec() {
+		return this.codec;
+	}
+
+	boolean batched() {
+		return this.batchItems > 0;
+	}
+
+	ReservationConnection create(ClientTransport transport) {
+		ReservationChanges.Source source = this.changes.source();
+		Mono<RSocket> connect = RSocketFactory
 			.connect()
-			.transport(this.tcpClientTransport)
+			.addConnectionPlugin(this.metrics.connectionInterceptor())
+			.addClientPlugin(this.metrics.interactionInterceptor())
+			.dataMimeType(this.batched() ? this.codec.mimeType() + ";batch=" + this.batchItems : this.codec.mimeType())
+			.frameDecoder(Frame::retain)
+			.fragment(this.fragmentMtu)
+			.keepAliveTickPeriod(this.keepAliveInterval)
+			.keepAliveAckTimeout(this.keepAliveAckTimeout)
+			.acceptor(server -> new AbstractRSocket() {
+
+				@Override
+				public Mono<Void> metadataPush(Payload payload) {
+					return Mono.fromRunnable(() -> source.accept(payload));
+				}
+			})
+			.transport(transport)
 			.start()
-			.flatMapMany(rs ->
-				rs.requestStream(DefaultPayload.create(new byte[0]))
-					.map(Payload::getDataUtf8)
-					.map(this::to)
-			);
+			.retryBackoff(this.maxConnectAttempts, this.firstBackoff, this.maxBackoff);
+		return new ReservationConnection(connect);
+	}
+}
+
+/**
+	* A single long-lived RSocket connection that every request is multiplexed over. The connection is
+	* established lazily by the first subscriber and shared by all later ones; once it closes (or the connect
+	* attempt fails) the cached connection is dropped and the next caller reconnects. Once {@link #dispose() disposed}
+	* it never connects again.
+	*/
+@Log4j2
+class ReservationConnection {
+
+	private final Mono<RSocket> connect;
+	private final AtomicReference<Mono<RSocket>> current = new AtomicReference<>();
+	private volatile boolean disposed;
+
+	ReservationConnection(Mono<RSocket> connect) {
+		this.connect = connect;
+	}
+
+	Mono<RSocket> rSocket() {
+		return Mono.defer(() -> {
+			if (this.disposed) {
+				return Mono.error(new IllegalStateException("the reservation-service connection has been closed"));
+			}
+			Mono<RSocket> cached = this.current.get();
+			if (cached != null) {
+				return cached;
+			}
+			Mono<RSocket> fresh = this.connect
+				.doOnNext(this::resetOnClose)
+				.doOnError(e -> this.reset())
+				.cache();
+			return this.current.compareAndSet(null, fresh) ? fresh : this.current.get();
+		})
+			.flatMap(rs -> {
+				if (rs.isDisposed()) {
+					this.reset();
+					return this.rSocket();
+				}
+				return Mono.just(rs);
+			});
+	}
+
+	private void resetOnClose(RSocket rs) {
+		rs.onClose()
+			.doFinally(signal -> {
+				log.info("reservation-service connection closed (" + signal + "), reconnecting on next use");
+				this.reset();
+			})
+			.subscribe();
+	}
+
+	private void reset() {
+		this.current.set(null);
+	}
+
+	void dispose() {
+		this.disposed = true;
+		Mono<RSocket> cached = this.current.getAndSet(null);
+		if (cached != null) {
+			cached.subscribe(RSocket::dispose, e -> {
+			});
+		}
+	}
+}
+
+/**
+	* Collects the change notifications reservation-service pushes to its clients so that anything
+	* holding a local copy of reservations can refresh just what changed. A change with {@code null}
+	* ids means one or more notifications were missed and everything should be refreshed. Every instance
+	* numbers its changes on its own, so versions are tracked per connection by a {@link Source}, and a
+	* new epoch on a connection (the instance restarted) starts the count over after a full refresh.
+	*/
+@Log4j2
+@Component
+class ReservationChanges {
+
+	private final ObjectMapper objectMapper;
+	private final DirectProcessor<ReservationChange> processor = DirectProcessor.create();
+	private final FluxSink<ReservationChange> sink = this.processor.sink();
+
+	ReservationChanges(ObjectMapper objectMapper) {
+		this.objectMapper = objectMapper;
+	}
+
+	Flux<ReservationChange> changes() {
+		return this.processor;
 	}
 
-	private Reservation to(String json) {
+	Source source() {
+		return new Source();
+	}
+
+	/**
+		* The changes pushed over one connection to one reservation-service instance, reconnects included.
+		*/
+	class Source {
+
+		private String epoch;
+		private long version;
+
+		void accept(Payload payload) {
+			ReservationChange change;
+			try {
+				change = objectMapper.readValue((InputStream) new ByteBufInputStream(payload.sliceMetadata()), ReservationChange.class);
+			}
+			catch (IOException e) {
+				log.warn("couldn't read a reservation change notification", e);
+				return;
+			}
+			finally {
+				payload.release();
+			}
+			synchronized (this) {
+				if (!Objects.equals(this.epoch, change.getEpoch())) {
+					if (this.epoch != null) {
+						log.info("reservation-service moved from epoch " + this.epoch + " to " + change.getEpoch());
+						change = new ReservationChange(change.getEpoch(), change.getVersion(), null);
+					}
+					this.epoch = change.getEpoch();
+				}
+				else if (change.getVersion() <= this.version) {
+					return;
+				}
+				else if (change.getVersion() != this.version + 1) {
+					log.info("missed reservation changes between versions " + this.version + " and " + change.getVersion());
+					change = new ReservationChange(change.getEpoch(), change.getVersion(), null);
+				}
+				this.version = change.getVersion();
+			}
+			sink.next(change);
+		}
+	}
+}
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+class ReservationChange {
+
+	private String epoch;
+	private long version;
+	private Collection<Integer> ids;
+}
+
+/**
+	* The body of a {@code requestStream}, matching the one reservation-service understands.
+	*/
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+class ReservationQuery {
+
+	private String name;
+	private Integer after;
+	private Integer limit;
+}
+
+/**
+	* Unpacks the batches reservation-service sends to clients that asked for them: the reservation count
+	* as an {@code int}, then every reservation as an {@code int} byte count followed by its encoding.
+	*/
+final class ReservationBatches {
+
+	private ReservationBatches() {
+	}
+
+	static List<Reservation> unpack(ReservationCodec codec, Payload payload) {
+		try {
+			ByteBuf batch = payload.sliceData();
+			int count = batch.readInt();
+			List<Reservation> reservations = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				reservations.add(codec.decode(batch.readSlice(batch.readInt())));
+			}
+			return reservations;
+		}
+		finally {
+			payload.release();
+		}
+	}
+}
+
+/**
+	* Encodes {@link Reservation reservations} straight into (and out of) {@link ByteBuf buffers}
+	* for the data MIME type announced in the RSocket setup frame.
+	*/
+interface ReservationCodec {
+
+	String mimeType();
+
+	ByteBuf encode(ByteBufAllocator allocator, Reservation reservation);
+
+	Reservation decode(ByteBuf buffer);
+
+	/**
+		* Decodes straight from the payload's data buffer and then releases the payload, whether or not decoding succeeded.
+		*/
+	default Reservation decodeAndRelease(Payload payload) {
 		try {
-			return this.objectMapper.readValue(json, Reservation.class);
+			return this.decode(payload.sliceData());
+		}
+		finally {
+			payload.release();
+		}
+	}
+}
+
+@Component
+class JsonReservationCodec implements ReservationCodec {
+
+	static final String MIME_TYPE = MediaType.APPLICATION_JSON_VALUE;
+
+	private final ObjectReader reader;
+	private final ObjectWriter writer;
+
+	JsonReservationCodec(ObjectMapper objectMapper) {
+		this.reader = objectMapper.readerFor(Reservation.class);
+		this.writer = objectMapper.writerFor(Reservation.class);
+	}
+
+	@Override
+	public String mimeType() {
+		return MIME_TYPE;
+	}
+
+	@Override
+	public ByteBuf encode(ByteBufAllocator allocator, Reservation reservation) {
+		ByteBuf buffer = allocator.buffer();
+		try {
+			this.writer.writeValue((OutputStream) new ByteBufOutputStream(buffer), reservation);
+			return buffer;
 		}
 		catch (IOException e) {
+			buffer.release();
 			throw new RuntimeException(e);
 		}
 	}
 
-	private final ObjectMapper objectMapper;
+	@Override
+	public Reservation decode(ByteBuf buffer) {
+		try {
+			return this.reader.readValue((InputStream) new ByteBufInputStream(buffer));
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
+
+/**
+	* Must stay in step with the layout used by reservation-service: the id as an {@code int}
+	* ({@code -1} for none) followed by the name as an {@code int} byte count ({@code -1} for none)
+	* and its UTF-8 bytes.
+	*/
+@Component
+class BinaryReservationCodec implements ReservationCodec {
+
+	static final String MIME_TYPE = "application/x.reservation+binary";
+
+	@Override
+	public String mimeType() {
+		return MIME_TYPE;
+	}
+
+	@Override
+	public ByteBuf encode(ByteBufAllocator allocator, Reservation reservation) {
+		ByteBuf buffer = allocator.buffer();
+		buffer.writeInt(reservation.getId() == null ? -1 : reservation.getId());
+		if (reservation.getName() == null) {
+			buffer.writeInt(-1);
+		}
+		else {
+			int lengthIndex = buffer.writerIndex();
+			buffer.writeInt(0);
+			buffer.setInt(lengthIndex, ByteBufUtil.writeUtf8(buffer, reservation.getName()));
+		}
+		return buffer;
+	}
+
+	@Override
+	public Reservation decode(ByteBuf buffer) {
+		int id = buffer.readInt();
+		int length = buffer.readInt();
+		String name = null;
+		if (length >= 0) {
+			name = buffer.toString(buffer.readerIndex(), length, StandardCharsets.UTF_8);
+			buffer.skipBytes(length);
+		}
+		return new Reservation(id < 0 ? null : id, name);
+	}
+}
+
+@Component
+class ReservationCodecs {
+
+	private final Map<String, ReservationCodec> codecs = new HashMap<>();
+	private final ReservationCodec fallback;
+
+	ReservationCodecs(List<ReservationCodec> codecs, JsonReservationCodec fallback) {
+		codecs.forEach(codec -> this.codecs.put(codec.mimeType(), codec));
+		this.fallback = fallback;
+	}
+
+	ReservationCodec forMimeType(String mimeType) {
+		return this.codecs.getOrDefault(mimeType, this.fallback);
+	}
 }
 
 @Data
@@ -0,0 +1,118 @@
+package com.example.reservationclient;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Test;
+import org.reactivestreams.Subscription;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+	* Drives {@link AdaptiveDemand} with an upstream that answers every {@code request(n)} after a fixed round trip
+	* and a consumer whose requests the test paces by hand.
+	*/
+public class AdaptiveDemandTests {
+
+	private static final int FLOOR = 4;
+	private static final int CEILING = 64;
+
+	private final MeterRegistry registry = new SimpleMeterRegistry();
+	private final AdaptiveDemand adaptiveDemand = new AdaptiveDemand(this.registry, FLOOR, CEILING);
+	private final Disposable.Composite subscriptions = Disposables.composite();
+
+	@After
+	public void dispose() {
+		this.subscriptions.dispose();
+	}
+
+	@Test
+	public void theBatchGrowsForAFastConsumerAndShrinksOnceItSlowsDown() {
+		Consumer consumer = new Consumer();
+		this.adaptiveDemand.apply("test", this.upstream(Duration.ofMillis(5))).subscribe(consumer);
+		this.subscriptions.add(consumer);
+		assertThat(this.batch()).isEqualTo(FLOOR);
+
+		for (int i = 0; i < 50; i++) {
+			consumer.request(CEILING / 2);
+			this.sleep(1);
+		}
+		this.await(() -> consumer.received.get() == 50 * CEILING / 2);
+		assertThat(this.batch()).isEqualTo(CEILING);
+
+		for (int i = 0; i < 100 && this.batch() > FLOOR; i++) {
+			consumer.request(FLOOR);
+			this.sleep(20);
+		}
+		assertThat(this.batch()).isEqualTo(FLOOR);
+	}
+
+	@Test
+	public void aConsumerThatAsksForEverythingGetsTheCeiling() {
+		Consumer consumer = new Consumer();
+		this.adaptiveDemand.apply("test", this.upstream(Duration.ofMillis(5))).subscribe(consumer);
+		this.subscriptions.add(consumer);
+		consumer.request(Long.MAX_VALUE);
+		this.await(() -> consumer.received.get() > CEILING * 2);
+		assertThat(this.batch()).isEqualTo(CEILING);
+		assertThat(this.registry.get("reservations.demand.requested").summary().max()).isEqualTo(CEILING);
+	}
+
+	private Flux<Integer> upstream(Duration roundTrip) {
+		AtomicInteger next = new AtomicInteger();
+		return Flux.create(sink -> sink.onRequest(n -> Schedulers.parallel().schedule(() -> {
+			for (long i = 0; i < n; i++) {
+				sink.next(next.getAndIncrement());
+			}
+		}, roundTrip.toMillis(), TimeUnit.MILLISECONDS)));
+	}
+
+	private double batch() {
+		return this.registry.get("reservations.demand.batch").tag("stream", "test").gauge().value();
+	}
+
+	private void await(BooleanSupplier condition) {
+		long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+		while (!condition.getAsBoolean()) {
+			assertThat(System.nanoTime()).as("waited too long for the consumer").isLessThan(deadline);
+			this.sleep(1);
+		}
+	}
+
+	private void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+		* Requests only what the test tells it to and counts what arrives.
+		*/
+	private static class Consumer extends BaseSubscriber<Integer> {
+
+		private final AtomicInteger received = new AtomicInteger();
+
+		@Override
+		protected void hookOnSubscribe(Subscription subscription) {
+		}
+
+		@Override
+		protected void hookOnNext(Integer value) {
+			this.received.incrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package com.example.reservationclient;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+import org.reactivestreams.Subscription;
+import reactor.core.Disposable;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+	* Drives {@link ReservationCoalescing} with upstreams the test emits into by hand, handing out the next one of
+	* {@link #upstreams} every time the coalescing starts a stream.
+	*/
+public class ReservationCoalescingTests {
+
+	private final Reservation one = new Reservation(1, "Jane");
+	private final Reservation two = new Reservation(2, "Josh");
+	private final Deque<Flux<Reservation>> upstreams = new ArrayDeque<>();
+	private int started;
+
+	@Test
+	public void callersWithinTheWindowShareOneUpstream() {
+		ReservationCoalescing coalescing = this.coalescing(Duration.ofMinutes(1), 256);
+		DirectProcessor<Reservation> upstream = DirectProcessor.create();
+		this.upstreams.add(upstream);
+		List<Reservation> leader = new ArrayList<>();
+		List<Reservation> follower = new ArrayList<>();
+		coalescing.coalesce(this::next).subscribe(leader::add);
+		coalescing.coalesce(this::next).subscribe(follower::add);
+		upstream.onNext(this.one);
+		upstream.onNext(this.two);
+		upstream.onComplete();
+		assertThat(this.started).isEqualTo(1);
+		assertThat(leader).containsExactly(this.one, this.two);
+		assertThat(follower).containsExactly(this.one, this.two);
+		assertThat(coalescing.ratio()).isEqualTo(2.0);
+	}
+
+	@Test
+	public void aFollowerCountsOnceItHasSharedTheFirstReservation() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		ReservationCoalescing coalescing = new ReservationCoalescing(registry, Duration.ofMinutes(1), 256);
+		DirectProcessor<Reservation> upstream = DirectProcessor.create();
+		this.upstreams.add(upstream);
+		coalescing.coalesce(this::next).subscribe();
+		coalescing.coalesce(this::next).subscribe();
+		assertThat(registry.get("reservations.coalescing.calls").tag("role", "follower").counter().count()).isZero();
+		upstream.onNext(this.one);
+		assertThat(registry.get("reservations.coalescing.calls").tag("role", "follower").counter().count()).isEqualTo(1);
+		assertThat(registry.get("reservations.coalescing.calls").tag("role", "leader").counter().count()).isEqualTo(1);
+	}
+
+	@Test
+	public void callersAfterTheFirstReservationStartTheirOwnStream() {
+		ReservationCoalescing coalescing = this.coalescing(Duration.ofMinutes(1), 256);
+		DirectProcessor<Reservation> first = DirectProcessor.create();
+		this.upstreams.add(first);
+		this.upstreams.add(Flux.just(this.one, this.two));
+		List<Reservation> late = new ArrayList<>();
+		coalescing.coalesce(this::next).subscribe();
+		first.onNext(this.one);
+		coalescing.coalesce(this::next).subscribe(late::add);
+		assertThat(this.started).isEqualTo(2);
+		assertThat(late).containsExactly(this.one, this.two);
+	}
+
+	@Test
+	public void callersAfterTheWindowStartTheirOwnStream() {
+		ReservationCoalescing coalescing = this.coalescing(Duration.ZERO, 256);
+		this.upstreams.add(DirectProcessor.create());
+		this.upstreams.add(DirectProcessor.create());
+		coalescing.coalesce(this::next).subscribe();
+		coalescing.coalesce(this::next).subscribe();
+		assertThat(this.started).isEqualTo(2);
+		assertThat(coalescing.ratio()).isEqualTo(1.0);
+	}
+
+	@Test
+	public void upstreamDemandIsBoundedByThePrefetch() {
+		ReservationCoalescing coalescing = this.coalescing(Duration.ofMinutes(1), 4);
+		AtomicLong requested = new AtomicLong();
+		this.upstreams.add(Flux.<Reservation>generate(sink -> sink.next(this.one)).doOnRequest(requested::addAndGet));
+		coalescing.coalesce(this::next).subscribe(new BaseSubscriber<Reservation>() {
+
+			@Override
+			protected void hookOnSubscribe(Subscription subscription) {
+				subscription.request(1);
+			}
+		});
+		assertThat(requested.get()).isLessThanOrEqualTo(4 + 1);
+	}
+
+	@Test
+	public void upstreamIsCancelledOnceEverySubscriberHasCancelled() {
+		ReservationCoalescing coalescing = this.coalescing(Duration.ofMinutes(1), 256);
+		AtomicBoolean cancelled = new AtomicBoolean();
+		this.upstreams.add(DirectProcessor.<Reservation>create().doOnCancel(() -> cancelled.set(true)));
+		Disposable leader = coalescing.coalesce(this::next).subscribe();
+		Disposable follower = coalescing.coalesce(this::next).subscribe();
+		leader.dispose();
+		assertThat(cancelled).isFalse();
+		follower.dispose();
+		assertThat(cancelled).isTrue();
+		assertThat(this.started).isEqualTo(1);
+	}
+
+	private ReservationCoalescing coalescing(Duration window, int prefetch) {
+		return new ReservationCoalescing(new SimpleMeterRegistry(), window, prefetch);
+	}
+
+	private Flux<Reservation> next() {
+		this.started++;
+		return this.upstreams.remove();
+	}
+}
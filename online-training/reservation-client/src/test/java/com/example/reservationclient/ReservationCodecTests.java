@@ -0,0 +1,84 @@
+package com.example.reservationclient;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.util.ResourceLeakDetector;
+import io.rsocket.Payload;
+import io.rsocket.util.ByteBufPayload;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+	* Runs with Netty's leak detection at {@code PARANOID} so that any pooled buffer the decode path forgets
+	* to release is reported.
+	*/
+public class ReservationCodecTests {
+
+	private final ReservationCodec json = new JsonReservationCodec(new ObjectMapper());
+	private final ReservationCodec binary = new BinaryReservationCodec();
+
+	private ResourceLeakDetector.Level level;
+
+	@Before
+	public void paranoid() {
+		this.level = ResourceLeakDetector.getLevel();
+		ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.PARANOID);
+	}
+
+	@After
+	public void restore() {
+		ResourceLeakDetector.setLevel(this.level);
+	}
+
+	@Test
+	public void jsonDecodesAndReleasesThePayload() {
+		this.assertRoundTrip(this.json);
+	}
+
+	@Test
+	public void binaryDecodesAndReleasesThePayload() {
+		this.assertRoundTrip(this.binary);
+	}
+
+	@Test
+	public void releasesThePayloadWhenDecodingFails() {
+		ByteBuf garbage = PooledByteBufAllocator.DEFAULT.buffer().writeBytes("{not json".getBytes(StandardCharsets.UTF_8));
+		Payload payload = ByteBufPayload.create(garbage);
+		assertThatThrownBy(() -> this.json.decodeAndRelease(payload)).isInstanceOf(RuntimeException.class);
+		assertThat(payload.refCnt()).isZero();
+		assertThat(garbage.refCnt()).isZero();
+	}
+
+	@Test
+	public void unpacksABatchAndReleasesThePayload() {
+		ByteBuf first = this.binary.encode(PooledByteBufAllocator.DEFAULT, new Reservation(1, "Jane"));
+		ByteBuf second = this.binary.encode(PooledByteBufAllocator.DEFAULT, new Reservation(2, null));
+		ByteBuf batch = PooledByteBufAllocator.DEFAULT.buffer()
+			.writeInt(2)
+			.writeInt(first.readableBytes()).writeBytes(first)
+			.writeInt(second.readableBytes()).writeBytes(second);
+		first.release();
+		second.release();
+		Payload payload = ByteBufPayload.create(batch);
+		assertThat(ReservationBatches.unpack(this.binary, payload))
+			.containsExactly(new Reservation(1, "Jane"), new Reservation(2, null));
+		assertThat(payload.refCnt()).isZero();
+		assertThat(batch.refCnt()).isZero();
+	}
+
+	private void assertRoundTrip(ReservationCodec codec) {
+		Reservation reservation = new Reservation(42, "Jane");
+		ByteBuf data = codec.encode(PooledByteBufAllocator.DEFAULT, reservation);
+		Payload payload = ByteBufPayload.create(data);
+		assertThat(codec.decodeAndRelease(payload)).isEqualTo(reservation);
+		assertThat(payload.refCnt()).isZero();
+		assertThat(data.refCnt()).isZero();
+	}
+}
@@ -0,0 +1,201 @@
+package com.example.reservationclient;
+
+import com.example.rsocket.metrics.RSocketMetrics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.RSocket;
+import io.rsocket.transport.ClientTransport;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.client.DefaultServiceInstance;
+import org.springframework.cloud.client.ServiceInstance;
+import org.springframework.cloud.client.discovery.DiscoveryClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+	* Runs {@link ReservationLoadBalancer} against a discovery client whose instances the test changes by hand and
+	* connections that hand out in-memory {@link RSocket RSockets}, one {@link Instance} per connection created.
+	*/
+public class ReservationLoadBalancerTests {
+
+	private final MeterRegistry registry = new SimpleMeterRegistry();
+	private final List<ServiceInstance> discovered = new ArrayList<>();
+	private final List<Instance> created = new ArrayList<>();
+	private final List<RSocket> used = new ArrayList<>();
+
+	private ReservationLoadBalancer loadBalancer;
+
+	@Before
+	public void loadBalancer() {
+		ObjectMapper objectMapper = new ObjectMapper();
+		ReservationCodecs codecs = new ReservationCodecs(Collections.emptyList(), new JsonReservationCodec(objectMapper));
+		ReservationConnections connections = new ReservationConnections(codecs, new ReservationChanges(objectMapper),
+			new RSocketMetrics(this.registry, "client"), JsonReservationCodec.MIME_TYPE, Duration.ofSeconds(20), Duration.ofSeconds(90),
+			1, Duration.ofMillis(100), Duration.ofSeconds(1), "", 0, 0) {
+
+			@Override
+			ReservationConnection create(ClientTransport transport) {
+				Instance instance = new Instance();
+				created.add(instance);
+				return instance.connection;
+			}
+		};
+		DiscoveryClient discoveryClient = new DiscoveryClient() {
+
+			@Override
+			public String description() {
+				return "test";
+			}
+
+			@Override
+			public List<ServiceInstance> getInstances(String serviceId) {
+				return new ArrayList<>(discovered);
+			}
+
+			@Override
+			public List<String> getServices() {
+				return Collections.singletonList("reservation-service");
+			}
+		};
+		this.loadBalancer = new ReservationLoadBalancer(discoveryClient, connections, this.registry, "reservation-service",
+			Duration.ofHours(1), Duration.ofMillis(10), Duration.ofSeconds(10));
+	}
+
+	@Test
+	public void failsWithoutInstances() {
+		this.loadBalancer.refresh();
+		assertThatThrownBy(() -> this.open().blockFirst())
+			.isInstanceOf(IllegalStateException.class)
+			.hasMessageContaining("no reservation-service instances");
+	}
+
+	@Test
+	public void prefersTheInstanceWithFewerOutstandingRequests() {
+		Instance a = this.discover("a");
+		this.open().subscribe();
+		this.open().subscribe();
+		Instance b = this.discover("b");
+		this.open().subscribe();
+		assertThat(this.used).containsExactly(a.rSocket, a.rSocket, b.rSocket);
+	}
+
+	@Test
+	public void closesADepartedInstanceOnceItHasDrained() {
+		Instance a = this.discover("a");
+		Disposable stream = this.open().subscribe();
+		this.discovered.clear();
+		Instance b = this.discover("b");
+		assertThat(a.rSocket.isDisposed()).isFalse();
+		this.open().subscribe();
+		assertThat(this.used).containsExactly(a.rSocket, b.rSocket);
+		stream.dispose();
+		assertThat(a.rSocket.isDisposed()).isTrue();
+	}
+
+	@Test
+	public void neverReconnectsADepartedInstance() {
+		Instance a = this.discover("a");
+		this.open().subscribe().dispose();
+		this.discovered.clear();
+		this.loadBalancer.refresh();
+		assertThat(a.rSocket.isDisposed()).isTrue();
+		assertThatThrownBy(() -> a.connection.rSocket().block()).isInstanceOf(IllegalStateException.class);
+		assertThat(a.connects).hasValue(1);
+	}
+
+	@Test
+	public void hedgesASlowRequestToAnotherInstance() {
+		ReservationHedging hedging = this.hedging(1);
+		this.discover("a");
+		this.discover("b");
+		Object answer = this.loadBalancer
+			.executeHedged(rs -> {
+				this.used.add(rs);
+				return this.used.size() == 1 ? Flux.never() : Flux.just(rs);
+			}, hedging)
+			.blockFirst(Duration.ofSeconds(5));
+		assertThat(this.used).hasSize(2).doesNotHaveDuplicates();
+		assertThat(answer).isSameAs(this.used.get(1));
+		assertThat(this.registry.get("reservations.hedging.hedges").tag("outcome", "won").counter().count()).isEqualTo(1);
+	}
+
+	@Test
+	public void ignoresAHedgeThatFails() {
+		ReservationHedging hedging = this.hedging(1);
+		this.discover("a");
+		this.discover("b");
+		Object answer = this.loadBalancer
+			.executeHedged(rs -> {
+				this.used.add(rs);
+				return this.used.size() == 1
+					? Flux.just("primary").delaySubscription(Duration.ofMillis(200))
+					: Flux.error(new IllegalStateException("hedge failed"));
+			}, hedging)
+			.blockFirst(Duration.ofSeconds(5));
+		assertThat(answer).isEqualTo("primary");
+		assertThat(this.used).hasSize(2);
+	}
+
+	@Test
+	public void waitsForTheFirstInstanceOnceTheBudgetIsSpent() {
+		ReservationHedging hedging = this.hedging(0.05);
+		this.discover("a");
+		this.discover("b");
+		Object answer = this.loadBalancer
+			.executeHedged(rs -> {
+				this.used.add(rs);
+				return Flux.just("primary").delaySubscription(Duration.ofMillis(200));
+			}, hedging)
+			.blockFirst(Duration.ofSeconds(5));
+		assertThat(answer).isEqualTo("primary");
+		assertThat(this.used).hasSize(1);
+		assertThat(this.registry.get("reservations.hedging.hedges").tag("outcome", "throttled").counter().count()).isEqualTo(1);
+	}
+
+	/**
+		* Hedges after a fixed 20ms, with every request adding {@code budget} to a balance that starts empty.
+		*/
+	private ReservationHedging hedging(double budget) {
+		return new ReservationHedging(this.registry, true, Duration.ofMillis(20), Duration.ofMillis(20), budget, 10);
+	}
+
+	private Instance discover(String host) {
+		this.discovered.add(new DefaultServiceInstance(host, "reservation-service", host, 8080, false));
+		this.loadBalancer.refresh();
+		return this.created.get(this.created.size() - 1);
+	}
+
+	private Flux<Object> open() {
+		return this.loadBalancer.execute(rs -> {
+			this.used.add(rs);
+			return Flux.never();
+		});
+	}
+
+	/**
+		* One reservation-service instance: an RSocket that never answers and a count of how often it was connected to.
+		*/
+	private static class Instance {
+
+		private final RSocket rSocket = new AbstractRSocket() {
+		};
+		private final AtomicInteger connects = new AtomicInteger();
+		private final ReservationConnection connection = new ReservationConnection(Mono.fromCallable(() -> {
+			this.connects.incrementAndGet();
+			return this.rSocket;
+		}));
+	}
+}
@@ -0,0 +1,77 @@
+package com.example.reservationclient;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Test;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+	* Runs {@link ReservationNearCache} against a loader that counts how often it is asked to go upstream.
+	*/
+public class ReservationNearCacheTests {
+
+	private final MeterRegistry registry = new SimpleMeterRegistry();
+	private final AtomicInteger upstreamCalls = new AtomicInteger();
+	private ReservationNearCache cache;
+
+	@After
+	public void stop() {
+		this.cache.stop();
+	}
+
+	@Test
+	public void aHitDoesNotGoUpstream() {
+		this.cache = this.cache(10, Duration.ofMinutes(1));
+		assertThat(this.cache.get(1, () -> this.load(new Reservation(1, "Jane"))).block()).isEqualTo(new Reservation(1, "Jane"));
+		assertThat(this.cache.get(1, () -> this.load(new Reservation(1, "Jane"))).block()).isEqualTo(new Reservation(1, "Jane"));
+		assertThat(this.upstreamCalls).hasValue(1);
+		assertThat(this.registry.get("reservations.near-cache.hits").functionCounter().count()).isEqualTo(1);
+	}
+
+	@Test
+	public void anExpiredEntryIsLoadedAgain() {
+		this.cache = this.cache(10, Duration.ZERO);
+		this.cache.get(1, () -> this.load(new Reservation(1, "Jane"))).block();
+		this.cache.get(1, () -> this.load(new Reservation(1, "Jane"))).block();
+		assertThat(this.upstreamCalls).hasValue(2);
+	}
+
+	@Test
+	public void anEmptyLoadLeavesNoEntryBehind() {
+		this.cache = this.cache(1, Duration.ofMinutes(1));
+		this.cache.get(1, () -> this.load(new Reservation(1, "Jane"))).block();
+		assertThat(this.cache.get(2, () -> this.load(null)).block()).isNull();
+		assertThat(this.cache.size()).isEqualTo(1);
+		this.cache.get(1, () -> this.load(new Reservation(1, "Jane"))).block();
+		assertThat(this.upstreamCalls).hasValue(2);
+		assertThat(this.registry.get("reservations.near-cache.evictions").functionCounter().count()).isZero();
+	}
+
+	@Test
+	public void aFailedLoadLeavesNoEntryBehind() {
+		this.cache = this.cache(10, Duration.ofMinutes(1));
+		Mono<Reservation> failing = this.cache.get(1, () -> Mono.error(new IllegalStateException("upstream down")));
+		assertThat(failing.onErrorResume(e -> Mono.empty()).block()).isNull();
+		assertThat(this.cache.size()).isZero();
+		assertThat(this.cache.get(1, () -> this.load(new Reservation(1, "Jane"))).block()).isEqualTo(new Reservation(1, "Jane"));
+	}
+
+	private ReservationNearCache cache(int maxSize, Duration ttl) {
+		return new ReservationNearCache(new ReservationChanges(new ObjectMapper()), this.registry, maxSize, ttl,
+			Duration.ZERO, Duration.ZERO);
+	}
+
+	private Mono<Reservation> load(Reservation reservation) {
+		return Mono.fromCallable(() -> {
+			this.upstreamCalls.incrementAndGet();
+			return reservation;
+		});
+	}
+}
@@ -0,0 +1,64 @@
+package com.example.reservationclient;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.http.server.reactive.ReactorHttpHandlerAdapter;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import reactor.core.publisher.Flux;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+	* Serves {@link ReservationClientApplication#routes(ReservationClient)} over a real HTTP server, so that the demand
+	* reaching {@link ReservationClient#getAllReservations()} is the demand of the response writer.
+	*/
+public class ReservationRoutesTests {
+
+	private final ReservationClient client = mock(ReservationClient.class);
+	private DisposableServer server;
+
+	@After
+	public void stop() {
+		this.server.disposeNow();
+	}
+
+	@Test
+	public void namesAreStreamedWithBoundedDemand() {
+		AtomicLong largestRequest = new AtomicLong();
+		when(this.client.getAllReservations()).thenReturn(Flux
+			.<Reservation>generate(sink -> sink.next(new Reservation(1, "Jane")))
+			.take(10_000)
+			.doOnRequest(n -> largestRequest.accumulateAndGet(n, Math::max)));
+		String names = this.get("/reservations/names");
+		assertThat(names).hasSize(10_000 * "Jane".length());
+		assertThat(largestRequest.get()).isLessThan(10_000);
+	}
+
+	@Test
+	public void aFailingStreamFallsBack() {
+		when(this.client.getAllReservations()).thenReturn(Flux.error(new IllegalStateException("no instances")));
+		assertThat(this.get("/reservations/names")).isEqualTo("EEK!");
+	}
+
+	private String get(String uri) {
+		this.server = HttpServer.create()
+			.host("localhost")
+			.port(0)
+			.handle(new ReactorHttpHandlerAdapter(RouterFunctions.toHttpHandler(new ReservationClientApplication().routes(this.client))))
+			.bindNow();
+		return WebClient.create("http://localhost:" + this.server.port())
+			.get()
+			.uri(uri)
+			.retrieve()
+			.bodyToMono(String.class)
+			.block(Duration.ofSeconds(10));
+	}
+}
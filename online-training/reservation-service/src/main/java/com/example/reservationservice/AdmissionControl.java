@@ -0,0 +1,171 @@
+package com.example.reservationservice;
+
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+import io.rsocket.RSocket;
+import io.rsocket.exceptions.RejectedException;
+import javax.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.resources.LoopResources;
+import reactor.netty.tcp.TcpResources;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+	* Decides up front whether the server can take on another interaction instead of letting
+	* work queue up behind the Postgres connection. Interactions that touch the database share
+	* {@code max-database-concurrency} permits across all connections, every connection may have at
+	* most {@code max-in-flight-per-connection} interactions open, and nothing new is admitted while
+	* the event loops serving RSocket connections are lagging by more than {@code max-scheduler-lag}. Work that can't be admitted fails
+	* straight away with a {@link RejectedException}, which RSocket marks as {@link io.rsocket.exceptions.Retryable}
+	* so clients know to back off or go elsewhere; {@link RSocket#availability()} reports the remaining headroom.
+	*/
+@Log4j2
+@Component
+class AdmissionControl {
+
+	private final Semaphore databasePermits;
+	private final int maxDatabaseConcurrency;
+	private final int maxInFlightPerConnection;
+	private final Duration maxSchedulerLag;
+	private final Duration probeInterval;
+	private final Map<EventExecutor, AtomicLong> nextProbes = new ConcurrentHashMap<>();
+	private final Map<EventExecutor, Long> measuredLags = new ConcurrentHashMap<>();
+	private volatile Disposable probe = Disposables.single();
+
+	AdmissionControl(@Value("${reservations.admission.max-database-concurrency:10}") int maxDatabaseConcurrency,
+		@Value("${reservations.admission.max-in-flight-per-connection:32}") int maxInFlightPerConnection,
+		@Value("${reservations.admission.max-scheduler-lag:200ms}") Duration maxSchedulerLag,
+		@Value("${reservations.admission.probe-interval:100ms}") Duration probeInterval) {
+		this.databasePermits = new Semaphore(maxDatabaseConcurrency);
+		this.maxDatabaseConcurrency = maxDatabaseConcurrency;
+		this.maxInFlightPerConnection = maxInFlightPerConnection;
+		this.maxSchedulerLag = maxSchedulerLag;
+		this.probeInterval = probeInterval;
+	}
+
+	/**
+		* Schedules a probe on every event loop of the RSocket TCP transport and reports the worst lag among them, since
+		* that's where a busy loop delays every connection it serves.
+		*/
+	@EventListener(ApplicationReadyEvent.class)
+	public void startProbe() {
+		long interval = this.probeInterval.toNanos();
+		Disposable.Composite probes = Disposables.composite();
+		for (EventExecutor loop : TcpResources.get().onServer(LoopResources.DEFAULT_NATIVE)) {
+			AtomicLong expected = new AtomicLong(System.nanoTime() + interval);
+			this.nextProbes.put(loop, expected);
+			ScheduledFuture<?> probe = loop.scheduleWithFixedDelay(() -> {
+				long now = System.nanoTime();
+				this.measuredLags.put(loop, Math.max(0, now - expected.getAndSet(now + interval)));
+			}, interval, interval, TimeUnit.NANOSECONDS);
+			probes.add(() -> probe.cancel(false));
+		}
+		this.probe = probes;
+	}
+
+	/**
+		* The worst of the lag the last probe on each loop measured and how overdue a probe is right now, so a loop that
+		* is stuck counts as lagging before it gets round to running its probe.
+		*/
+	private long schedulerLagNanos() {
+		long now = System.nanoTime();
+		long lag = this.measuredLags.isEmpty() ? 0 : Collections.max(this.measuredLags.values());
+		for (AtomicLong expected : this.nextProbes.values()) {
+			lag = Math.max(lag, now - expected.get());
+		}
+		return lag;
+	}
+
+	@PreDestroy
+	public void stopProbe() {
+		this.probe.dispose();
+		this.nextProbes.clear();
+		this.measuredLags.clear();
+	}
+
+	ConnectionAdmission forConnection() {
+		return new ConnectionAdmission();
+	}
+
+	/**
+		* Runs {@code work} holding one of the database permits, or fails it straight away when none is free. Long-lived
+		* interactions such as an ingest channel take a permit this way for every statement rather than for as long as
+		* they stay open.
+		*/
+	<T> Mono<T> withDatabasePermit(Supplier<Mono<T>> work) {
+		return Mono.defer(() -> {
+			if (!this.databasePermits.tryAcquire()) {
+				return Mono.error(new RejectedException("all " + this.maxDatabaseConcurrency + " database permits are in use"));
+			}
+			AtomicBoolean released = new AtomicBoolean();
+			return Mono
+				.defer(work)
+				.doFinally(signal -> {
+					if (released.compareAndSet(false, true)) {
+						this.databasePermits.release();
+					}
+				});
+		});
+	}
+
+	class ConnectionAdmission {
+
+		private final AtomicInteger inFlight = new AtomicInteger();
+
+		<T> Flux<T> admit(boolean usesDatabase, Supplier<Publisher<T>> interaction) {
+			return Flux.defer(() -> {
+				long lag = schedulerLagNanos();
+				if (lag > maxSchedulerLag.toNanos()) {
+					return Flux.error(new RejectedException("the server is lagging by " + Duration.ofNanos(lag).toMillis() + "ms"));
+				}
+				if (this.inFlight.incrementAndGet() > maxInFlightPerConnection) {
+					this.inFlight.decrementAndGet();
+					return Flux.error(new RejectedException("this connection already has " + maxInFlightPerConnection + " interactions in flight"));
+				}
+				if (usesDatabase && !databasePermits.tryAcquire()) {
+					this.inFlight.decrementAndGet();
+					return Flux.error(new RejectedException("all " + maxDatabaseConcurrency + " database permits are in use"));
+				}
+				AtomicBoolean released = new AtomicBoolean();
+				return Flux
+					.defer(interaction)
+					.doFinally(signal -> {
+						if (released.compareAndSet(false, true)) {
+							this.inFlight.decrementAndGet();
+							if (usesDatabase) {
+								databasePermits.release();
+							}
+						}
+					});
+			});
+		}
+
+		double availability() {
+			if (schedulerLagNanos() > maxSchedulerLag.toNanos()) {
+				return 0.0;
+			}
+			double connection = 1.0 - (double) this.inFlight.get() / maxInFlightPerConnection;
+			double database = (double) databasePermits.availablePermits() / maxDatabaseConcurrency;
+			return Math.max(0.0, Math.min(connection, database));
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package com.example.reservationservice;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.rsocket.RSocket;
+import io.rsocket.util.DefaultPayload;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+	* Tells every connected client which reservations changed by sending a {@code metadataPush}
+	* whose metadata is a JSON {@link ReservationChange}. The version goes up by one with every
+	* change, so a client that sees a gap knows it missed something and should refresh everything.
+	* Versions are only comparable within one epoch: every instance picks a fresh epoch when it starts,
+	* so clients track each instance (and each restart of it) separately.
+	*/
+@Log4j2
+@Component
+class ReservationChangeBroadcaster {
+
+	private final Set<RSocket> requesters = ConcurrentHashMap.newKeySet();
+	private final String epoch = UUID.randomUUID().toString();
+	private final AtomicLong version = new AtomicLong();
+	private final ObjectMapper objectMapper;
+
+	ReservationChangeBroadcaster(ObjectMapper objectMapper) {
+		this.objectMapper = objectMapper;
+	}
+
+	void register(RSocket requester) {
+		this.requesters.add(requester);
+		requester
+			.onClose()
+			.doFinally(signal -> this.requesters.remove(requester))
+			.subscribe();
+	}
+
+	@EventListener
+	public void broadcast(ReservationsChangedEvent event) {
+		ReservationChange change = new ReservationChange(this.epoch, this.version.incrementAndGet(), event.getIds());
+		byte[] metadata;
+		try {
+			metadata = this.objectMapper.writeValueAsBytes(change);
+		}
+		catch (JsonProcessingException e) {
+			throw new RuntimeException(e);
+		}
+		this.requesters.forEach(requester -> requester
+			.metadataPush(DefaultPayload.create(new byte[0], metadata))
+			.subscribe(null, error -> log.warn("couldn't notify a client of change " + change.getVersion(), error)));
+	}
+}
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+class ReservationChange {
+
+	private String epoch;
+	private long version;
+	private Collection<Integer> ids;
+}
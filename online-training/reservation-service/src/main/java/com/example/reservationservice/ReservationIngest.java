@@ -0,0 +1,64 @@
+package com.example.reservationservice;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+import reactor.core.publisher.Flux;
+import reactor.util.function.Tuples;
+
+import java.time.Duration;
+
+/**
+	* Writes a stream of reservations as multi-row {@code INSERT}s. Incoming rows are grouped into
+	* batches of at most {@code batch-size} rows, or whatever arrived within {@code batch-timeout},
+	* and every batch is written as one statement and acknowledged once it has been stored. Each
+	* statement takes a database permit from {@link AdmissionControl} for as long as it runs.
+	*/
+@Component
+class ReservationIngest {
+
+	private final ReservationRepository reservationRepository;
+	private final AdmissionControl admissionControl;
+	private final ApplicationEventPublisher publisher;
+	private final int batchSize;
+	private final Duration batchTimeout;
+	private final int concurrency;
+
+	ReservationIngest(ReservationRepository reservationRepository, AdmissionControl admissionControl,
+		ApplicationEventPublisher publisher,
+		@Value("${reservations.ingest.batch-size:500}") int batchSize,
+		@Value("${reservations.ingest.batch-timeout:100ms}") Duration batchTimeout,
+		@Value("${reservations.ingest.concurrency:2}") int concurrency) {
+		Assert.isTrue(batchSize > 0 && batchSize <= ReservationBulkOperations.MAX_BATCH_SIZE,
+			"the batch size must be between 1 and " + ReservationBulkOperations.MAX_BATCH_SIZE);
+		this.reservationRepository = reservationRepository;
+		this.admissionControl = admissionControl;
+		this.publisher = publisher;
+		this.batchSize = batchSize;
+		this.batchTimeout = batchTimeout;
+		this.concurrency = concurrency;
+	}
+
+	Flux<ReservationBatchAck> ingest(Flux<Reservation> reservations) {
+		return reservations
+			.bufferTimeout(this.batchSize, this.batchTimeout)
+			.index((index, batch) -> Tuples.of(index + 1, batch))
+			.flatMapSequential(batch -> this.admissionControl
+				.withDatabasePermit(() -> this.reservationRepository.insertBatch(batch.getT2()))
+				.doOnNext(ids -> this.publisher.publishEvent(new ReservationsChangedEvent(this, ids)))
+				.map(ids -> new ReservationBatchAck(batch.getT1(), ids.size())), this.concurrency);
+	}
+}
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+class ReservationBatchAck {
+
+	private long batch;
+	private int rows;
+}
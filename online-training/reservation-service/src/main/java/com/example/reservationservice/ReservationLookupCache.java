@@ -0,0 +1,106 @@
+package com.example.reservationservice;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+	* A size-bounded, least-recently-used cache in front of {@link ReservationRepository#findById(Object)}
+	* for single reservation lookups. Entries are dropped when a {@link ReservationsChangedEvent} mentions them,
+	* and the whole cache is cleared when an event doesn't say which reservations changed. Misses are read from the
+	* primary, never a replica, so a cached entry is never older than the last change event, and a miss that was
+	* still loading when an event arrived isn't cached at all.
+	*/
+@Log4j2
+@Component
+class ReservationLookupCache {
+
+	private final ReservationRepository reservationRepository;
+	private final Map<Integer, Reservation> reservations;
+	private final AtomicLong generation = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	ReservationLookupCache(ReservationRepository reservationRepository, MeterRegistry registry,
+		@Value("${reservations.lookup.cache-size:10000}") int cacheSize) {
+		this.reservationRepository = reservationRepository;
+		this.reservations = new LinkedHashMap<Integer, Reservation>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Reservation> eldest) {
+				boolean evict = size() > cacheSize;
+				if (evict) {
+					evictions.incrementAndGet();
+				}
+				return evict;
+			}
+		};
+		FunctionCounter.builder("reservations.lookup.cache.hits", this.hits, AtomicLong::get).register(registry);
+		FunctionCounter.builder("reservations.lookup.cache.misses", this.misses, AtomicLong::get).register(registry);
+		FunctionCounter.builder("reservations.lookup.cache.evictions", this.evictions, AtomicLong::get).register(registry);
+		Gauge.builder("reservations.lookup.cache.size", this, ReservationLookupCache::size).register(registry);
+	}
+
+	Mono<Reservation> findById(Integer id) {
+		Reservation cached;
+		synchronized (this.reservations) {
+			cached = this.reservations.get(id);
+		}
+		if (cached != null) {
+			this.hits.incrementAndGet();
+			return Mono.just(cached);
+		}
+		this.misses.incrementAndGet();
+		long generation = this.generation.get();
+		return RoutingConnectionFactory
+			.onPrimary(this.reservationRepository.findById(id))
+			.doOnNext(reservation -> {
+				synchronized (this.reservations) {
+					if (this.generation.get() == generation) {
+						this.reservations.put(id, reservation);
+					}
+				}
+			});
+	}
+
+	@EventListener
+	public void invalidate(ReservationsChangedEvent event) {
+		synchronized (this.reservations) {
+			this.generation.incrementAndGet();
+			if (event.getIds() == null) {
+				this.reservations.clear();
+			}
+			else {
+				event.getIds().forEach(this.reservations::remove);
+			}
+		}
+	}
+
+	long hits() {
+		return this.hits.get();
+	}
+
+	long misses() {
+		return this.misses.get();
+	}
+
+	long evictions() {
+		return this.evictions.get();
+	}
+
+	int size() {
+		synchronized (this.reservations) {
+			return this.reservations.size();
+		}
+	}
+}
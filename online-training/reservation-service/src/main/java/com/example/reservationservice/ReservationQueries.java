@@ -0,0 +1,160 @@
+package com.example.reservationservice;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.r2dbc.function.DatabaseClient;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+	* The optional body of a {@code requestStream}: every field may be left out, and
+	* an empty request streams every reservation.
+	*/
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+class ReservationQuery {
+
+	private String name;
+	private Integer after;
+	private Integer limit;
+}
+
+/**
+	* Runs a {@link ReservationQuery} as a series of bounded keyset queries
+	* ({@code id > ? order by id limit ?}). Nothing is read until the subscriber asks for data,
+	* and each page is sized from the subscriber's outstanding demand, so a client that
+	* requests 50 rows causes the database to read 50 rows.
+	*/
+@Component
+class ReservationQueries {
+
+	private final DatabaseClient databaseClient;
+	private final int maxFetchSize;
+
+	ReservationQueries(DatabaseClient databaseClient,
+		@Value("${reservations.query.max-fetch-size:256}") int maxFetchSize) {
+		this.databaseClient = databaseClient;
+		this.maxFetchSize = maxFetchSize;
+	}
+
+	Flux<Reservation> stream(ReservationQuery query) {
+		return this.stream(query, this.maxFetchSize);
+	}
+
+	/**
+		* Like {@link #stream(ReservationQuery)}, with pages of at most {@code fetchSize} rows.
+		*/
+	Flux<Reservation> stream(ReservationQuery query, int fetchSize) {
+		return RoutingConnectionFactory.reading(Flux.create(sink -> new KeysetCursor(query, fetchSize, sink).start()));
+	}
+
+	/**
+		* Reads one page: up to {@code fetchSize} reservations after {@code after} (or from the start when it's
+		* {@code null}), in id order.
+		*/
+	Flux<Reservation> fetch(String name, Integer after, int fetchSize) {
+		StringBuilder sql = new StringBuilder("select * from reservation");
+		List<Object> values = new ArrayList<>();
+		if (after != null) {
+			values.add(after);
+			sql.append(" where id > $").append(values.size());
+		}
+		if (name != null) {
+			values.add(name);
+			sql.append(values.size() == 1 ? " where" : " and").append(" name = $").append(values.size());
+		}
+		values.add(fetchSize);
+		sql.append(" order by id limit $").append(values.size());
+
+		DatabaseClient.GenericExecuteSpec spec = this.databaseClient.execute().sql(sql.toString());
+		for (int i = 0; i < values.size(); i++) {
+			spec = spec.bind(i, values.get(i));
+		}
+		return spec.as(Reservation.class).fetch().all();
+	}
+
+	private class KeysetCursor {
+
+		private final FluxSink<Reservation> sink;
+		private final String name;
+		private final int fetchSize;
+		private final AtomicInteger wip = new AtomicInteger();
+		private volatile boolean fetching;
+		private volatile Integer after;
+		private volatile long remaining;
+		private volatile Disposable page = Disposables.single();
+
+		KeysetCursor(ReservationQuery query, int fetchSize, FluxSink<Reservation> sink) {
+			Assert.isTrue(fetchSize > 0, "the fetch size must be at least 1");
+			this.sink = sink;
+			this.name = query.getName();
+			this.fetchSize = fetchSize;
+			this.after = query.getAfter();
+			this.remaining = query.getLimit() == null ? Long.MAX_VALUE : query.getLimit();
+		}
+
+		void start() {
+			this.sink.onDispose(() -> this.page.dispose());
+			this.sink.onRequest(n -> this.drain());
+		}
+
+		/**
+			* Starts the next page when there is demand and no page in flight. Demand arrives on the subscriber's thread
+			* and pages complete on the database's, possibly while this very call is still starting them, so only one
+			* thread runs the loop at a time and it goes round again for every call that came in meanwhile. That also
+			* keeps pages that complete straight away from recursing into each other.
+			*/
+		private void drain() {
+			if (this.wip.getAndIncrement() != 0) {
+				return;
+			}
+			int missed = 1;
+			do {
+				long requested = this.sink.requestedFromDownstream();
+				if (!this.fetching && requested > 0 && !this.sink.isCancelled()) {
+					this.fetching = true;
+					this.fetchPage((int) Math.min(Math.min(requested, this.fetchSize), this.remaining));
+				}
+				missed = this.wip.addAndGet(-missed);
+			}
+			while (missed != 0);
+		}
+
+		private void fetchPage(int fetchSize) {
+			if (fetchSize <= 0) {
+				this.sink.complete();
+				return;
+			}
+			AtomicInteger fetched = new AtomicInteger();
+			this.page = fetch(this.name, this.after, fetchSize)
+				.subscriberContext(this.sink.currentContext())
+				.subscribe(reservation -> {
+						fetched.incrementAndGet();
+						this.after = reservation.getId();
+						this.remaining--;
+						this.sink.next(reservation);
+					},
+					this.sink::error,
+					() -> {
+						if (fetched.get() < fetchSize || this.remaining <= 0) {
+							this.sink.complete();
+						}
+						else {
+							this.fetching = false;
+							this.drain();
+						}
+					});
+		}
+	}
+}
@@ -1,24 +1,41 @@
 package com.example.reservationservice;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.example.r2dbc.pool.PooledConnectionFactory;
+import com.example.rsocket.metrics.RSocketMetrics;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.r2dbc.postgresql.PostgresqlConnectionConfiguration;
 import io.r2dbc.postgresql.PostgresqlConnectionFactory;
 import io.r2dbc.spi.ConnectionFactory;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
 import io.rsocket.*;
 import io.rsocket.transport.netty.server.TcpServerTransport;
+import io.rsocket.util.ByteBufPayload;
 import io.rsocket.util.DefaultPayload;
+import javax.annotation.PreDestroy;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.extern.log4j.Log4j2;
 import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.event.EventListener;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.r2dbc.config.AbstractR2dbcConfiguration;
 import org.springframework.data.r2dbc.function.DatabaseClient;
@@ -28,10 +45,17 @@ import org.springframework.data.repository.reactive.ReactiveCrudRepository;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
 import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
+import org.springframework.util.InvalidMimeTypeException;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.reactive.HandlerMapping;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.server.RequestPredicate;
 import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 import org.springframework.web.reactive.handler.SimpleUrlHandlerMapping;
 import org.springframework.web.reactive.socket.WebSocketHandler;
@@ -41,12 +65,23 @@ import org.springframework.web.reactive.socket.server.support.WebSocketHandlerAd
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
 import java.util.stream.Stream;
 
 import static org.springframework.web.reactive.function.server.RequestPredicates.GET;
+import static org.springframework.web.reactive.function.server.RequestPredicates.queryParam;
 import static org.springframework.web.reactive.function.server.RouterFunctions.route;
 import static org.springframework.web.reactive.function.server.ServerResponse.ok;
 
@@ -54,8 +89,14 @@ import static org.springframework.web.reactive.function.server.ServerResponse.ok
 public class ReservationServiceApplication {
 
 	@Bean
-	RouterFunction<ServerResponse> routes(ReservationRepository rr) {
-		return route(GET("/reservations"), r -> ok().body(rr.findAll(), Reservation.class));
+	RouterFunction<ServerResponse> routes(ReservationExport export, ReservationPages pages) {
+		return route(GET("/reservations").and(ReservationPages.REQUESTED), pages::page)
+			.andRoute(GET("/reservations"), export::export);
+	}
+
+	@Bean
+	RSocketMetrics rSocketMetrics(MeterRegistry registry) {
+		return new RSocketMetrics(registry, "server");
 	}
 
 	public static void main(String[] args) {
@@ -63,17 +104,136 @@ public class ReservationServiceApplication {
 	}
 }
 
+/**
+	* Serves {@code GET /reservations?limit=&after=}: up to {@code limit} reservations (never more than
+	* {@code max-limit}) whose id is greater than {@code after}, in id order. When a page comes back full, the
+	* {@code X-Next-Cursor} header holds the {@code after} value for the next one.
+	*/
+@Component
+class ReservationPages {
+
+	static final String NEXT_CURSOR = "X-Next-Cursor";
+
+	static final RequestPredicate REQUESTED = queryParam("limit", limit -> true).or(queryParam("after", after -> true));
+
+	private final ReservationRepository reservationRepository;
+	private final int maxLimit;
+
+	ReservationPages(ReservationRepository reservationRepository,
+		@Value("${reservations.page.max-limit:1000}") int maxLimit) {
+		this.reservationRepository = reservationRepository;
+		this.maxLimit = maxLimit;
+	}
+
+	Mono<ServerResponse> page(ServerRequest request) {
+		int limit;
+		int after;
+		try {
+			limit = request.queryParam("limit").map(Integer::parseInt).orElse(this.maxLimit);
+			after = request.queryParam("after").map(Integer::parseInt).orElse(Integer.MIN_VALUE);
+		}
+		catch (NumberFormatException e) {
+			return ServerResponse.badRequest().syncBody("limit and after must be numbers");
+		}
+		if (limit < 1) {
+			return ServerResponse.badRequest().syncBody("limit must be at least 1");
+		}
+		int size = Math.min(limit, this.maxLimit);
+		return this.reservationRepository
+			.findPage(after, size)
+			.collectList()
+			.flatMap(page -> {
+				ServerResponse.BodyBuilder response = ok();
+				if (page.size() == size) {
+					response.header(NEXT_CURSOR, String.valueOf(page.get(page.size() - 1).getId()));
+				}
+				return response.syncBody(page);
+			});
+	}
+}
 
+/**
+	* Serves {@code GET /reservations} as a JSON array that is written one reservation at a time, as fast as the
+	* client reads it. Jackson's encoder collects a {@code Flux} into a list before writing plain JSON, which would
+	* hold the whole table in memory for the length of a slow download. The rows come from keyset pages of at most
+	* {@code fetch-size} rows, each sized from the client's outstanding demand, and every page borrows a pooled
+	* connection only while it's being read, so a stalled download holds neither rows nor a connection.
+	*/
+@Component
+class ReservationExport {
+
+	private final ReservationQueries queries;
+	private final ObjectMapper objectMapper;
+	private final DataBufferFactory buffers = new DefaultDataBufferFactory();
+	private final int fetchSize;
+
+	ReservationExport(ReservationQueries queries, ObjectMapper objectMapper,
+		@Value("${reservations.export.fetch-size:256}") int fetchSize) {
+		Assert.isTrue(fetchSize > 0, "reservations.export.fetch-size must be at least 1");
+		this.queries = queries;
+		this.objectMapper = objectMapper;
+		this.fetchSize = fetchSize;
+	}
+
+	Mono<ServerResponse> export(ServerRequest request) {
+		Flux<DataBuffer> reservations = this.queries.stream(new ReservationQuery(), this.fetchSize)
+			.index()
+			.map(reservation -> this.json(reservation.getT1() == 0 ? "" : ",", reservation.getT2()));
+		Flux<DataBuffer> array = Flux.concat(Mono.fromSupplier(() -> this.text("[")), reservations, Mono.fromSupplier(() -> this.text("]")));
+		return ok().contentType(MediaType.APPLICATION_JSON).body(BodyInserters.fromDataBuffers(array));
+	}
+
+	private DataBuffer json(String separator, Reservation reservation) {
+		try {
+			byte[] json = this.objectMapper.writeValueAsBytes(reservation);
+			return this.buffers.allocateBuffer(separator.length() + json.length)
+				.write(separator.getBytes(StandardCharsets.UTF_8))
+				.write(json);
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private DataBuffer text(String text) {
+		return this.buffers.wrap(text.getBytes(StandardCharsets.UTF_8));
+	}
+}
+
+
+@Log4j2
 @Component
 class RSocketServer {
 
-	private final ReservationRepository reservationRepository;
-	private final TcpServerTransport tcpServerTransport = TcpServerTransport.create(7000);
+	private final ReservationSnapshotCache reservationSnapshotCache;
+	private final ReservationQueries reservationQueries;
+	private final ReservationIngest reservationIngest;
+	private final ReservationCodecs reservationCodecs;
+	private final AdmissionControl admissionControl;
+	private final ReservationChangeBroadcaster reservationChangeBroadcaster;
+	private final ReservationLookupCache reservationLookupCache;
+	private final RSocketMetrics rSocketMetrics;
+	private final ReservationBatches reservationBatches;
 	private final ObjectMapper objectMapper;
+	private final int fragmentMtu;
+	private final TcpServerTransport tcpServerTransport = TcpServerTransport.create(7000);
 
-	RSocketServer(ReservationRepository reservationRepository, ObjectMapper objectMapper) {
-		this.reservationRepository = reservationRepository;
+	RSocketServer(ReservationSnapshotCache reservationSnapshotCache, ReservationQueries reservationQueries,
+		ReservationIngest reservationIngest, ReservationCodecs reservationCodecs, AdmissionControl admissionControl,
+		ReservationChangeBroadcaster reservationChangeBroadcaster, ReservationLookupCache reservationLookupCache,
+		RSocketMetrics rSocketMetrics, ReservationBatches reservationBatches, ObjectMapper objectMapper,
+		@Value("${reservations.rsocket.fragment-mtu:0}") int fragmentMtu) {
+		this.reservationSnapshotCache = reservationSnapshotCache;
+		this.rSocketMetrics = rSocketMetrics;
+		this.reservationLookupCache = reservationLookupCache;
+		this.reservationQueries = reservationQueries;
+		this.reservationIngest = reservationIngest;
+		this.admissionControl = admissionControl;
+		this.reservationChangeBroadcaster = reservationChangeBroadcaster;
+		this.reservationCodecs = reservationCodecs;
+		this.reservationBatches = reservationBatches;
 		this.objectMapper = objectMapper;
+		this.fragmentMtu = fragmentMtu;
 	}
 
 	@EventListener(ApplicationReadyEvent.class)
@@ -81,13 +241,81 @@ class RSocketServer {
 
 		SocketAcceptor socketAcceptor = (setup, requestRS) -> {
 
+			MimeType dataMimeType;
+			try {
+				dataMimeType = MimeTypeUtils.parseMimeType(setup.dataMimeType());
+			}
+			catch (InvalidMimeTypeException e) {
+				log.warn("couldn't read the data MIME type " + setup.dataMimeType() + ", falling back to JSON", e);
+				dataMimeType = MimeTypeUtils.APPLICATION_JSON;
+			}
+			ReservationCodec codec = this.reservationCodecs.forMimeType(dataMimeType.getType() + '/' + dataMimeType.getSubtype());
+			int batchItems = this.reservationBatches.itemsFor(dataMimeType);
+			AdmissionControl.ConnectionAdmission admission = this.admissionControl.forConnection();
+			this.reservationChangeBroadcaster.register(requestRS);
+
 			RSocket reply = new AbstractRSocket() {
 
 				@Override
-				public Flux<Payload> requestStream(Payload ignoreMe) {
-					return reservationRepository.findAll()
-						.map(RSocketServer.this::to)
-						.map(DefaultPayload::create);
+				public Mono<Payload> requestResponse(Payload request) {
+					Integer id;
+					try {
+						id = codec.decode(request.sliceData()).getId();
+					}
+					catch (RuntimeException e) {
+						return Mono.error(new IllegalArgumentException("a reservation id is required", e));
+					}
+					finally {
+						request.release();
+					}
+					if (id == null) {
+						return Mono.error(new IllegalArgumentException("a reservation id is required"));
+					}
+					return reservationLookupCache
+						.findById(id)
+						.map(reservation -> ByteBufPayload.create(codec.encode(ByteBufAllocator.DEFAULT, reservation)));
+				}
+
+				@Override
+				public Flux<Payload> requestStream(Payload request) {
+					ReservationQuery query = RSocketServer.this.from(request);
+					boolean snapshot = query.getName() == null && query.getAfter() == null && query.getLimit() == null;
+					boolean usesDatabase = !snapshot || !reservationSnapshotCache.isCached(codec);
+					if (batchItems > 0) {
+						return admission.admit(usesDatabase, () -> reservationBatches.pack(snapshot
+							? reservationSnapshotCache.snapshot(codec).map(Unpooled::wrappedBuffer)
+							: reservationQueries.stream(query).map(reservation -> codec.encode(ReservationBatches.ITEMS, reservation)), batchItems));
+					}
+					if (snapshot) {
+						return admission.admit(usesDatabase, () -> reservationSnapshotCache
+							.snapshot(codec)
+							.map(DefaultPayload::create));
+					}
+					return admission.admit(true, () -> reservationQueries
+						.stream(query)
+						.map(reservation -> ByteBufPayload.create(codec.encode(ByteBufAllocator.DEFAULT, reservation))));
+				}
+
+				@Override
+				public Flux<Payload> requestChannel(Publisher<Payload> payloads) {
+					Flux<Reservation> reservations = Flux
+						.from(payloads)
+						.map(payload -> {
+							try {
+								return codec.decode(payload.sliceData());
+							}
+							finally {
+								payload.release();
+							}
+						});
+					return admission.admit(false, () -> reservationIngest
+						.ingest(reservations)
+						.map(ack -> ByteBufPayload.create(codec.encode(ByteBufAllocator.DEFAULT, ack))));
+				}
+
+				@Override
+				public double availability() {
+					return admission.availability();
 				}
 			};
 
@@ -96,20 +324,261 @@ class RSocketServer {
 
 		RSocketFactory
 			.receive()
+			.addConnectionPlugin(this.rSocketMetrics.connectionInterceptor())
+			.addServerPlugin(this.rSocketMetrics.interactionInterceptor())
+			.fragment(this.fragmentMtu)
 			.acceptor(socketAcceptor)
 			.transport(this.tcpServerTransport)
 			.start()
 			.subscribe();
 	}
 
-	private String to(Reservation r) {
+	private ReservationQuery from(Payload request) {
+		try {
+			ByteBuf data = request.sliceData();
+			if (!data.isReadable()) {
+				return new ReservationQuery();
+			}
+			return this.objectMapper.readValue((InputStream) new ByteBufInputStream(data), ReservationQuery.class);
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		finally {
+			request.release();
+		}
+	}
+}
+
+/**
+	* Encodes {@link Reservation reservations} straight into (and out of) {@link ByteBuf buffers}
+	* for the data MIME type a client asks for in its RSocket setup frame.
+	*/
+interface ReservationCodec {
+
+	String mimeType();
+
+	ByteBuf encode(ByteBufAllocator allocator, Reservation reservation);
+
+	/**
+		* Encodes the acknowledgement {@code requestChannel} sends for every ingested batch.
+		*/
+	ByteBuf encode(ByteBufAllocator allocator, ReservationBatchAck ack);
+
+	Reservation decode(ByteBuf buffer);
+}
+
+@Component
+class JsonReservationCodec implements ReservationCodec {
+
+	static final String MIME_TYPE = MediaType.APPLICATION_JSON_VALUE;
+
+	private final ObjectMapper objectMapper;
+
+	JsonReservationCodec(ObjectMapper objectMapper) {
+		this.objectMapper = objectMapper;
+	}
+
+	@Override
+	public String mimeType() {
+		return MIME_TYPE;
+	}
+
+	@Override
+	public ByteBuf encode(ByteBufAllocator allocator, Reservation reservation) {
+		ByteBuf buffer = allocator.buffer();
+		try {
+			this.objectMapper.writeValue((OutputStream) new ByteBufOutputStream(buffer), reservation);
+			return buffer;
+		}
+		catch (IOException e) {
+			buffer.release();
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public ByteBuf encode(ByteBufAllocator allocator, ReservationBatchAck ack) {
+		ByteBuf buffer = allocator.buffer();
 		try {
-			return this.objectMapper.writeValueAsString(r);
+			this.objectMapper.writeValue((OutputStream) new ByteBufOutputStream(buffer), ack);
+			return buffer;
 		}
-		catch (JsonProcessingException e) {
+		catch (IOException e) {
+			buffer.release();
 			throw new RuntimeException(e);
 		}
 	}
+
+	@Override
+	public Reservation decode(ByteBuf buffer) {
+		try {
+			return this.objectMapper.readValue((InputStream) new ByteBufInputStream(buffer), Reservation.class);
+		}
+		catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
+
+/**
+	* A fixed layout of length-prefixed fields: the id as an {@code int} ({@code -1} for none)
+	* followed by the name as an {@code int} byte count ({@code -1} for none) and its UTF-8 bytes.
+	* A batch acknowledgement is the batch number as a {@code long} followed by the row count as an {@code int}.
+	*/
+@Component
+class BinaryReservationCodec implements ReservationCodec {
+
+	static final String MIME_TYPE = "application/x.reservation+binary";
+
+	@Override
+	public String mimeType() {
+		return MIME_TYPE;
+	}
+
+	@Override
+	public ByteBuf encode(ByteBufAllocator allocator, Reservation reservation) {
+		ByteBuf buffer = allocator.buffer();
+		buffer.writeInt(reservation.getId() == null ? -1 : reservation.getId());
+		if (reservation.getName() == null) {
+			buffer.writeInt(-1);
+		}
+		else {
+			int lengthIndex = buffer.writerIndex();
+			buffer.writeInt(0);
+			buffer.setInt(lengthIndex, ByteBufUtil.writeUtf8(buffer, reservation.getName()));
+		}
+		return buffer;
+	}
+
+	@Override
+	public ByteBuf encode(ByteBufAllocator allocator, ReservationBatchAck ack) {
+		return allocator.buffer(Long.BYTES + Integer.BYTES)
+			.writeLong(ack.getBatch())
+			.writeInt(ack.getRows());
+	}
+
+	@Override
+	public Reservation decode(ByteBuf buffer) {
+		int id = buffer.readInt();
+		int length = buffer.readInt();
+		String name = null;
+		if (length >= 0) {
+			name = buffer.toString(buffer.readerIndex(), length, StandardCharsets.UTF_8);
+			buffer.skipBytes(length);
+		}
+		return new Reservation(id < 0 ? null : id, name);
+	}
+}
+
+/**
+	* Packs several encoded reservations into one payload for clients that ask for it by adding a {@code batch}
+	* parameter (the most reservations they want per payload) to the data MIME type in their setup frame, e.g.
+	* {@code application/x.reservation+binary;batch=64}. A batch holds at most that many reservations, capped at
+	* {@code reservations.rsocket.batch.max-items}, and stops early rather than grow past
+	* {@code reservations.rsocket.batch.max-bytes}. The layout is the reservation count as an {@code int}, then
+	* every reservation as an {@code int} byte count followed by its encoding with the connection's codec.
+	*/
+@Component
+class ReservationBatches {
+
+	/**
+		* Allocates the single reservations that are about to be copied into a batch on the heap and outside the pool,
+		* so that ones dropped by a cancelled stream are simply garbage collected.
+		*/
+	static final ByteBufAllocator ITEMS = new UnpooledByteBufAllocator(false);
+
+	private final int maxItems;
+	private final int maxBytes;
+
+	ReservationBatches(
+		@Value("${reservations.rsocket.batch.max-items:256}") int maxItems,
+		@Value("${reservations.rsocket.batch.max-bytes:65536}") int maxBytes) {
+		this.maxItems = maxItems;
+		this.maxBytes = maxBytes;
+	}
+
+	int itemsFor(MimeType dataMimeType) {
+		String batch = dataMimeType.getParameter("batch");
+		if (batch == null) {
+			return 0;
+		}
+		try {
+			return Math.max(0, Math.min(this.maxItems, Integer.parseInt(batch)));
+		}
+		catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	Flux<Payload> pack(Flux<ByteBuf> reservations, int items) {
+		return Flux.defer(() -> {
+			int[] count = {0};
+			int[] bytes = {Integer.BYTES};
+			return reservations
+				.limitRate(items)
+				.bufferUntil(reservation -> {
+					int size = Integer.BYTES + reservation.readableBytes();
+					boolean full = count[0] > 0 && (count[0] >= items || bytes[0] + size > this.maxBytes);
+					if (full) {
+						count[0] = 0;
+						bytes[0] = Integer.BYTES;
+					}
+					count[0]++;
+					bytes[0] += size;
+					return full;
+				}, true)
+				.map(this::pack);
+		});
+	}
+
+	private Payload pack(List<ByteBuf> reservations) {
+		int size = Integer.BYTES;
+		for (ByteBuf reservation : reservations) {
+			size += Integer.BYTES + reservation.readableBytes();
+		}
+		ByteBuf batch = ByteBufAllocator.DEFAULT.buffer(size);
+		batch.writeInt(reservations.size());
+		for (ByteBuf reservation : reservations) {
+			batch.writeInt(reservation.readableBytes());
+			batch.writeBytes(reservation, reservation.readerIndex(), reservation.readableBytes());
+		}
+		return ByteBufPayload.create(batch);
+	}
+}
+
+@Component
+class ReservationCodecs {
+
+	private final Map<String, ReservationCodec> codecs = new HashMap<>();
+	private final ReservationCodec fallback;
+
+	ReservationCodecs(List<ReservationCodec> codecs, JsonReservationCodec fallback) {
+		codecs.forEach(codec -> this.codecs.put(codec.mimeType(), codec));
+		this.fallback = fallback;
+	}
+
+	ReservationCodec forMimeType(String mimeType) {
+		return this.codecs.getOrDefault(mimeType, this.fallback);
+	}
+}
+
+/**
+	* Published by anything that writes reservations so that in-memory copies can be refreshed.
+	* The ids are {@code null} when it isn't known which reservations changed, for example after a {@code deleteAll}.
+	*/
+class ReservationsChangedEvent extends ApplicationEvent {
+
+	private final Collection<Integer> ids;
+
+	ReservationsChangedEvent(Object source, Collection<Integer> ids) {
+		super(source);
+		this.ids = ids;
+	}
+
+	Collection<Integer> getIds() {
+		return this.ids;
+	}
 }
 
 @Configuration
@@ -149,13 +618,55 @@ class WebSocketConfiguration {
 @EnableR2dbcRepositories
 class R2dbcConfig extends AbstractR2dbcConfiguration {
 
-	private final PostgresqlConnectionFactory pgcf = new PostgresqlConnectionFactory(
-		PostgresqlConnectionConfiguration.builder().username("orders").password("0rd3rz").host("localhost").database("orders").build()
-	);
+	private final List<PooledConnectionFactory> pools = new ArrayList<>();
+	private final ConnectionFactory connectionFactory;
+
+	R2dbcConfig(MeterRegistry registry,
+		@Value("${reservations.r2dbc.pool.min-size:2}") int minSize,
+		@Value("${reservations.r2dbc.pool.max-size:10}") int maxSize,
+		@Value("${reservations.r2dbc.pool.acquire-timeout:5s}") Duration acquireTimeout,
+		@Value("${reservations.r2dbc.pool.validation-query:select 1}") String validationQuery,
+		@Value("${reservations.r2dbc.pool.validate-after-idle:1s}") Duration validateAfterIdle,
+		@Value("${reservations.r2dbc.pool.max-idle-time:10m}") Duration maxIdleTime,
+		@Value("${reservations.r2dbc.pool.eviction-interval:30s}") Duration evictionInterval,
+		@Value("${reservations.r2dbc.replicas:}") String[] replicas,
+		@Value("${reservations.r2dbc.replica-selection:least-loaded}") String replicaSelection,
+		@Value("${reservations.r2dbc.replica-acquire-timeout:250ms}") Duration replicaAcquireTimeout) {
+		BiFunction<String, String, PooledConnectionFactory> pool = (name, address) -> {
+			String[] hostAndPort = address.trim().split(":");
+			PostgresqlConnectionConfiguration.Builder builder = PostgresqlConnectionConfiguration.builder()
+				.username("orders").password("0rd3rz").host(hostAndPort[0]).database("orders");
+			if (hostAndPort.length > 1) {
+				builder.port(Integer.parseInt(hostAndPort[1]));
+			}
+			PooledConnectionFactory pooled = new PooledConnectionFactory(new PostgresqlConnectionFactory(builder.build()), registry,
+				name, minSize, maxSize, acquireTimeout, validationQuery, validateAfterIdle, maxIdleTime, evictionInterval);
+			this.pools.add(pooled);
+			return pooled;
+		};
+		PooledConnectionFactory primary = pool.apply("reservations", "localhost");
+		if (replicas.length == 0) {
+			this.connectionFactory = primary;
+		}
+		else {
+			List<PooledConnectionFactory> replicaPools = new ArrayList<>();
+			for (String replica : replicas) {
+				replicaPools.add(pool.apply("reservations-replica-" + replica.trim(), replica));
+			}
+			RoutingConnectionFactory.Selection selection = RoutingConnectionFactory.Selection
+				.valueOf(replicaSelection.trim().toUpperCase().replace('-', '_'));
+			this.connectionFactory = new RoutingConnectionFactory(primary, replicaPools, selection, replicaAcquireTimeout, registry);
+		}
+	}
 
 	@Override
 	public ConnectionFactory connectionFactory() {
-		return this.pgcf;
+		return this.connectionFactory;
+	}
+
+	@PreDestroy
+	void close() {
+		this.pools.forEach(PooledConnectionFactory::dispose);
 	}
 }
 
@@ -228,29 +739,119 @@ class SseController {
 class Listener {
 
 	private final ReservationRepository reservationRepository;
+	private final ApplicationEventPublisher publisher;
+	private final int batchSize;
+	private final int parallelism;
 
-	Listener(ReservationRepository reservationRepository) {
+	Listener(ReservationRepository reservationRepository, ApplicationEventPublisher publisher,
+		@Value("${reservations.seed.batch-size:1000}") int batchSize,
+		@Value("${reservations.seed.parallelism:4}") int parallelism) {
 		this.reservationRepository = reservationRepository;
+		this.publisher = publisher;
+		this.batchSize = batchSize;
+		this.parallelism = parallelism;
 	}
 
 	@EventListener(ApplicationReadyEvent.class)
 	public void go() throws Exception {
 
+		Flux<Reservation> reservations = Flux.just("A", "B", "C", "D")
+			.map(name -> new Reservation(null, name));
+
 		this.reservationRepository
 			.deleteAll()
-			.thenMany(Flux.just("A", "B", "C", "D")
-				.map(name -> new Reservation(null, name))
-				.flatMap(this.reservationRepository::save))
+			.then(this.reservationRepository.insertAll(reservations, this.batchSize, this.parallelism))
+			.then(Mono.fromRunnable(() -> this.publisher.publishEvent(new ReservationsChangedEvent(this, null))))
 			.thenMany(this.reservationRepository.findAll())
 			.subscribe(log::info);
 
 	}
 }
 
-interface ReservationRepository extends ReactiveCrudRepository<Reservation, String> {
+interface ReservationRepository extends ReactiveCrudRepository<Reservation, Integer>, ReservationBulkOperations {
 
+	/**
+		* Not cached as a prepared statement: the R2DBC SPI has no way to name one, and a server-side {@code PREPARE} can
+		* only be run with {@code EXECUTE}, which takes no bind parameters, so a statement cache above the driver would
+		* have to splice the name in as a literal.
+		*/
 	@Query("select * from reservation where name = $1 ")
 	Flux<Reservation> findByName(String name);
+
+	@Query("select * from reservation where id > $1 order by id limit $2")
+	Flux<Reservation> findPage(int after, int limit);
+}
+
+/**
+	* Bulk writes for {@link ReservationRepository}. {@code save} costs a statement and a round trip per row,
+	* so seeding and ingest write multi-row {@code INSERT}s instead.
+	*/
+interface ReservationBulkOperations {
+
+	/**
+		* PostgreSQL accepts at most {@value} bind parameters per statement: the count is an unsigned 16-bit field of
+		* the Bind message.
+		*/
+	int MAX_BIND_PARAMETERS = 65535;
+
+	/**
+		* Each row of {@link #insertBatch} binds only the name.
+		*/
+	int BIND_PARAMETERS_PER_ROW = 1;
+
+	int MAX_BATCH_SIZE = MAX_BIND_PARAMETERS / BIND_PARAMETERS_PER_ROW;
+
+	/**
+		* Inserts the batch as one statement and returns the generated ids in the order of the batch.
+		*/
+	Mono<List<Integer>> insertBatch(List<Reservation> batch);
+
+	/**
+		* Inserts the reservations in batches of {@code batchSize}, with up to {@code parallelism} batches in flight,
+		* and returns the number of rows written.
+		*/
+	Mono<Long> insertAll(Flux<Reservation> reservations, int batchSize, int parallelism);
+}
+
+class ReservationBulkOperationsImpl implements ReservationBulkOperations {
+
+	private final DatabaseClient databaseClient;
+
+	ReservationBulkOperationsImpl(DatabaseClient databaseClient) {
+		this.databaseClient = databaseClient;
+	}
+
+	@Override
+	public Mono<List<Integer>> insertBatch(List<Reservation> batch) {
+		Assert.isTrue(batch.size() <= MAX_BATCH_SIZE, "a batch holds at most " + MAX_BATCH_SIZE + " reservations");
+		if (batch.isEmpty()) {
+			return Mono.just(Collections.emptyList());
+		}
+		StringBuilder sql = new StringBuilder("insert into reservation (name) values ");
+		for (int i = 0; i < batch.size(); i++) {
+			sql.append(i == 0 ? "" : ", ").append("($").append(i + 1).append(')');
+		}
+		sql.append(" returning id");
+
+		DatabaseClient.GenericExecuteSpec spec = this.databaseClient.execute().sql(sql.toString());
+		for (int i = 0; i < batch.size(); i++) {
+			String name = batch.get(i).getName();
+			spec = name == null ? spec.bindNull(i, String.class) : spec.bind(i, name);
+		}
+		return spec
+			.map((row, rowMetadata) -> row.get("id", Integer.class))
+			.all()
+			.collectList();
+	}
+
+	@Override
+	public Mono<Long> insertAll(Flux<Reservation> reservations, int batchSize, int parallelism) {
+		Assert.isTrue(batchSize > 0 && batchSize <= MAX_BATCH_SIZE, "the batch size must be between 1 and " + MAX_BATCH_SIZE);
+		return reservations
+			.buffer(batchSize)
+			.flatMap(batch -> this.insertBatch(batch).map(List::size), parallelism)
+			.reduce(0L, (rows, written) -> rows + written);
+	}
 }
 
 @Data
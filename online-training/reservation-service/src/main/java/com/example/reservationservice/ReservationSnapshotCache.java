@@ -0,0 +1,86 @@
+package com.example.reservationservice;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.r2dbc.function.DatabaseClient;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+	* Keeps the encoded form of every reservation in memory, one snapshot per {@link ReservationCodec},
+	* so that {@link RSocketServer} can answer streams without going back to the database.
+	* Snapshots are in {@code id} order so that a client can pick up a broken stream with
+	* {@link ReservationQuery#getAfter()}.
+	* The snapshots are dropped whenever a {@link ReservationsChangedEvent} is published
+	* and lazily rebuilt by the next subscriber.
+	*/
+@Log4j2
+@Component
+class ReservationSnapshotCache {
+
+	private final DatabaseClient databaseClient;
+	private final Map<String, Mono<List<byte[]>>> snapshots = new ConcurrentHashMap<>();
+
+	ReservationSnapshotCache(DatabaseClient databaseClient) {
+		this.databaseClient = databaseClient;
+	}
+
+	Flux<byte[]> snapshot(ReservationCodec codec) {
+		return this.snapshots
+			.computeIfAbsent(codec.mimeType(), mimeType -> this.build(codec))
+			.flatMapIterable(Function.identity());
+	}
+
+	/**
+		* Whether the snapshot for {@code codec} is built or being built, so that streaming it won't query the database.
+		*/
+	boolean isCached(ReservationCodec codec) {
+		return this.snapshots.containsKey(codec.mimeType());
+	}
+
+	@EventListener
+	public void invalidate(ReservationsChangedEvent event) {
+		log.debug("invalidating the reservation snapshots after changes to " + event.getIds());
+		this.snapshots.clear();
+	}
+
+	private Mono<List<byte[]>> build(ReservationCodec codec) {
+		AtomicReference<Mono<List<byte[]>>> snapshot = new AtomicReference<>();
+		snapshot.set(this.all()
+			.map(reservation -> {
+				ByteBuf encoded = codec.encode(ByteBufAllocator.DEFAULT, reservation);
+				try {
+					return ByteBufUtil.getBytes(encoded);
+				}
+				finally {
+					encoded.release();
+				}
+			})
+			.collectList()
+			.doOnError(e -> this.snapshots.remove(codec.mimeType(), snapshot.get()))
+			.cache());
+		return snapshot.get();
+	}
+
+	/**
+		* Reads every reservation in {@code id} order.
+		*/
+	Flux<Reservation> all() {
+		return this.databaseClient
+			.execute()
+			.sql("select * from reservation order by id")
+			.as(Reservation.class)
+			.fetch()
+			.all();
+	}
+}
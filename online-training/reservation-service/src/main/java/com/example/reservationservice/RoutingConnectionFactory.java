@@ -0,0 +1,240 @@
+package com.example.reservationservice;
+
+import com.example.r2dbc.pool.PooledConnectionFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryMetadata;
+import lombok.extern.log4j.Log4j2;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.http.ResponseCookie;
+import org.springframework.stereotype.Component;
+import org.springframework.util.Assert;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+	* Hands out connections from the primary pool, or from one of the replica pools for read-only work. Work is
+	* read-only when it was started through {@link #reading(Flux)}, unless the client behind it wrote recently
+	* (see {@link RecentWrites}) or asked for the primary through {@link #onPrimary(Mono)}. A replica is picked
+	* round-robin or as the one with the fewest connections in use and waiting, and a read that can't get a replica
+	* connection within {@code replicaAcquireTimeout} falls back to the primary.
+	*/
+@Log4j2
+class RoutingConnectionFactory implements ConnectionFactory {
+
+	enum Selection {
+		ROUND_ROBIN, LEAST_LOADED
+	}
+
+	private static final String READ_ONLY = RoutingConnectionFactory.class.getName() + ".read-only";
+	private static final String PRIMARY = RoutingConnectionFactory.class.getName() + ".primary";
+
+	private final PooledConnectionFactory primary;
+	private final List<PooledConnectionFactory> replicas;
+	private final Selection selection;
+	private final Duration replicaAcquireTimeout;
+	private final AtomicInteger next = new AtomicInteger();
+	private final Counter primaryConnections;
+	private final Counter replicaConnections;
+	private final Counter fallbacks;
+
+	RoutingConnectionFactory(PooledConnectionFactory primary, List<PooledConnectionFactory> replicas, Selection selection,
+		Duration replicaAcquireTimeout, MeterRegistry registry) {
+		Assert.notEmpty(replicas, "there must be at least one replica");
+		this.primary = primary;
+		this.replicas = replicas;
+		this.selection = selection;
+		this.replicaAcquireTimeout = replicaAcquireTimeout;
+		this.primaryConnections = Counter.builder("r2dbc.routing.connections").tag("target", "primary").register(registry);
+		this.replicaConnections = Counter.builder("r2dbc.routing.connections").tag("target", "replica").register(registry);
+		this.fallbacks = Counter.builder("r2dbc.routing.fallbacks").register(registry);
+	}
+
+	static <T> Flux<T> reading(Flux<T> work) {
+		return work.subscriberContext(RoutingConnectionFactory::readOnly);
+	}
+
+	static <T> Mono<T> reading(Mono<T> work) {
+		return work.subscriberContext(RoutingConnectionFactory::readOnly);
+	}
+
+	/**
+		* Keeps {@code work} on the primary even where it reads, for reads whose results outlive the request, such as
+		* cache fills: a lagging replica would otherwise put a row the primary has already changed into the cache.
+		*/
+	static <T> Mono<T> onPrimary(Mono<T> work) {
+		return work.subscriberContext(context -> context.put(PRIMARY, true));
+	}
+
+	static <T> Flux<T> writing(Flux<T> work) {
+		return Mono.subscriberContext()
+			.doOnNext(RoutingConnectionFactory::wrote)
+			.thenMany(work);
+	}
+
+	static <T> Mono<T> writing(Mono<T> work) {
+		return Mono.subscriberContext()
+			.doOnNext(RoutingConnectionFactory::wrote)
+			.then(work);
+	}
+
+	private static Context readOnly(Context context) {
+		boolean wroteRecently = context.<RecentWrites>getOrEmpty(RecentWrites.class)
+			.map(RecentWrites::wroteRecently)
+			.orElse(false);
+		return wroteRecently || context.getOrDefault(PRIMARY, false) ? context : context.put(READ_ONLY, true);
+	}
+
+	private static void wrote(Context context) {
+		context.<RecentWrites>getOrEmpty(RecentWrites.class).ifPresent(RecentWrites::wrote);
+	}
+
+	@Override
+	public Mono<Connection> create() {
+		return Mono.subscriberContext()
+			.flatMap(context -> {
+				if (!context.getOrDefault(READ_ONLY, false)) {
+					return this.fromPrimary();
+				}
+				return this.replica()
+					.create(this.replicaAcquireTimeout)
+					.doOnNext(connection -> this.replicaConnections.increment())
+					.onErrorResume(e -> {
+						log.debug("couldn't get a replica connection, reading from the primary", e);
+						this.fallbacks.increment();
+						return this.fromPrimary();
+					});
+			});
+	}
+
+	private Mono<Connection> fromPrimary() {
+		return this.primary
+			.create()
+			.doOnNext(connection -> this.primaryConnections.increment());
+	}
+
+	@Override
+	public ConnectionFactoryMetadata getMetadata() {
+		return this.primary.getMetadata();
+	}
+
+	private PooledConnectionFactory replica() {
+		int start = Math.floorMod(this.next.getAndIncrement(), this.replicas.size());
+		if (this.selection == Selection.ROUND_ROBIN) {
+			return this.replicas.get(start);
+		}
+		PooledConnectionFactory leastLoaded = null;
+		int lowest = Integer.MAX_VALUE;
+		for (int i = 0; i < this.replicas.size(); i++) {
+			PooledConnectionFactory candidate = this.replicas.get((start + i) % this.replicas.size());
+			int load = candidate.inUse() + candidate.pending();
+			if (load < lowest) {
+				leastLoaded = candidate;
+				lowest = load;
+			}
+		}
+		return leastLoaded;
+	}
+}
+
+/**
+	* Whether the client behind a request wrote recently: either in an earlier request, within the read-your-writes
+	* window, or during this one. Reads that follow a write go to the primary so the client never reads a replica
+	* that hasn't caught up with its own writes.
+	*/
+class RecentWrites {
+
+	private final boolean earlierRequest;
+	private final AtomicBoolean thisRequest = new AtomicBoolean();
+
+	RecentWrites(boolean earlierRequest) {
+		this.earlierRequest = earlierRequest;
+	}
+
+	void wrote() {
+		this.thisRequest.set(true);
+	}
+
+	boolean wroteThisRequest() {
+		return this.thisRequest.get();
+	}
+
+	boolean wroteRecently() {
+		return this.earlierRequest || this.wroteThisRequest();
+	}
+}
+
+/**
+	* Gives every request a {@link RecentWrites} in its subscriber context. A request that writes sets a cookie that
+	* expires after {@code read-your-writes}, and requests that carry it keep reading from the primary until it does.
+	*/
+@Component
+class ReadYourWritesFilter implements WebFilter {
+
+	static final String COOKIE = "reservations-wrote";
+
+	private final Duration window;
+
+	ReadYourWritesFilter(@Value("${reservations.r2dbc.read-your-writes:5s}") Duration window) {
+		this.window = window;
+	}
+
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+		RecentWrites writes = new RecentWrites(exchange.getRequest().getCookies().containsKey(COOKIE));
+		exchange.getResponse().beforeCommit(() -> Mono.fromRunnable(() -> {
+			if (writes.wroteThisRequest()) {
+				exchange.getResponse().addCookie(ResponseCookie.from(COOKIE, "true").maxAge(this.window).path("/").httpOnly(true).build());
+			}
+		}));
+		return chain.filter(exchange).subscriberContext(context -> context.put(RecentWrites.class, writes));
+	}
+}
+
+/**
+	* Marks {@link ReservationRepository} calls for {@link RoutingConnectionFactory}: {@code find*}, {@code count*} and
+	* {@code exists*} methods are reads that may go to a replica, and every other method writes to the primary.
+	*/
+@Component
+class ReservationRepositoryRouting implements BeanPostProcessor {
+
+	private static final Pattern READS = Pattern.compile("^(find|count|exists).*");
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Object postProcessAfterInitialization(Object bean, String beanName) {
+		if (!(bean instanceof ReservationRepository)) {
+			return bean;
+		}
+		ProxyFactory proxy = new ProxyFactory();
+		proxy.setTarget(bean);
+		proxy.addInterface(ReservationRepository.class);
+		proxy.addAdvice((MethodInterceptor) invocation -> {
+			Object result = invocation.proceed();
+			boolean read = READS.matcher(invocation.getMethod().getName()).matches();
+			if (result instanceof Flux) {
+				return read ? RoutingConnectionFactory.reading((Flux<Object>) result) : RoutingConnectionFactory.writing((Flux<Object>) result);
+			}
+			if (result instanceof Mono) {
+				return read ? RoutingConnectionFactory.reading((Mono<Object>) result) : RoutingConnectionFactory.writing((Mono<Object>) result);
+			}
+			return result;
+		});
+		return proxy.getProxy();
+	}
+}
@@ -0,0 +1,115 @@
+package com.example.reservationservice;
+
+import io.netty.util.concurrent.EventExecutor;
+import io.rsocket.exceptions.RejectedException;
+import org.junit.After;
+import org.junit.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.resources.LoopResources;
+import reactor.netty.tcp.TcpResources;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+	* Runs {@link AdmissionControl} with two database permits and at most two interactions in flight per connection,
+	* holding interactions open with {@link Flux#never()}.
+	*/
+public class AdmissionControlTests {
+
+	private final AdmissionControl admissionControl = new AdmissionControl(2, 2, Duration.ofMillis(50), Duration.ofMillis(10));
+
+	@After
+	public void stopProbe() {
+		this.admissionControl.stopProbe();
+	}
+
+	@Test
+	public void rejectsDatabaseWorkOnceEveryPermitIsTaken() {
+		Disposable first = this.admissionControl.forConnection().admit(true, Flux::never).subscribe();
+		Disposable second = this.admissionControl.forConnection().admit(true, Flux::never).subscribe();
+		AdmissionControl.ConnectionAdmission third = this.admissionControl.forConnection();
+		assertThat(third.availability()).isZero();
+		StepVerifier.create(third.admit(true, () -> Flux.just("row")))
+			.expectErrorMessage("all 2 database permits are in use")
+			.verify();
+		StepVerifier.create(third.admit(false, () -> Flux.just("cached")))
+			.expectNext("cached")
+			.verifyComplete();
+		first.dispose();
+		StepVerifier.create(third.admit(true, () -> Flux.just("row")))
+			.expectNext("row")
+			.verifyComplete();
+		second.dispose();
+	}
+
+	@Test
+	public void rejectsAConnectionWithTooManyInteractionsInFlight() {
+		AdmissionControl.ConnectionAdmission connection = this.admissionControl.forConnection();
+		Disposable first = connection.admit(false, Flux::never).subscribe();
+		Disposable second = connection.admit(false, Flux::never).subscribe();
+		StepVerifier.create(connection.admit(false, () -> Flux.just("third")))
+			.expectError(RejectedException.class)
+			.verify();
+		StepVerifier.create(this.admissionControl.forConnection().admit(false, () -> Flux.just("elsewhere")))
+			.expectNext("elsewhere")
+			.verifyComplete();
+		first.dispose();
+		second.dispose();
+		assertThat(connection.availability()).isEqualTo(1.0);
+	}
+
+	@Test
+	public void releasesThePermitOfAnInteractionThatThrows() {
+		AdmissionControl.ConnectionAdmission connection = this.admissionControl.forConnection();
+		StepVerifier.create(connection.admit(true, () -> {
+			throw new IllegalStateException("no statement");
+		}))
+			.expectError(IllegalStateException.class)
+			.verify();
+		assertThat(connection.availability()).isEqualTo(1.0);
+		StepVerifier.create(this.admissionControl.withDatabasePermit(() -> Mono.error(new IllegalStateException("no statement"))))
+			.expectError(IllegalStateException.class)
+			.verify();
+		assertThat(connection.availability()).isEqualTo(1.0);
+	}
+
+	@Test
+	public void rejectsEverythingWhileTheTransportEventLoopsLag() {
+		this.admissionControl.startProbe();
+		AdmissionControl.ConnectionAdmission connection = this.admissionControl.forConnection();
+		for (EventExecutor loop : TcpResources.get().onServer(LoopResources.DEFAULT_NATIVE)) {
+			loop.execute(() -> this.sleep(Duration.ofMillis(300)));
+		}
+		this.await(() -> connection.availability() == 0.0);
+		StepVerifier.create(connection.admit(false, () -> Flux.just("cached")))
+			.expectErrorSatisfies(error -> assertThat(error)
+				.isInstanceOf(RejectedException.class)
+				.hasMessageContaining("lagging"))
+			.verify();
+		this.await(() -> connection.availability() == 1.0);
+	}
+
+	private void await(BooleanSupplier condition) {
+		long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+		while (!condition.getAsBoolean()) {
+			assertThat(System.nanoTime()).as("waited too long for admission control").isLessThan(deadline);
+			this.sleep(Duration.ofMillis(5));
+		}
+	}
+
+	private void sleep(Duration duration) {
+		try {
+			Thread.sleep(duration.toMillis());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package com.example.reservationservice;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.Payload;
+import org.junit.Test;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+	* Registers in-memory clients that decode every {@code metadataPush} they receive into a {@link ReservationChange}.
+	*/
+public class ReservationChangeBroadcasterTests {
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+	private final ReservationChangeBroadcaster broadcaster = new ReservationChangeBroadcaster(this.objectMapper);
+
+	@Test
+	public void pushesEveryChangeToEveryClientWithTheNextVersion() {
+		Client first = this.connect();
+		Client second = this.connect();
+		this.broadcaster.broadcast(new ReservationsChangedEvent(this, Arrays.asList(1, 2)));
+		this.broadcaster.broadcast(new ReservationsChangedEvent(this, null));
+		for (Client client : new Client[]{first, second}) {
+			assertThat(client.changes).extracting(ReservationChange::getVersion).containsExactly(1L, 2L);
+			assertThat(client.changes).extracting(ReservationChange::getIds).containsExactly(Arrays.asList(1, 2), null);
+		}
+		assertThat(first.changes.get(0).getEpoch()).isNotNull().isEqualTo(second.changes.get(1).getEpoch());
+	}
+
+	@Test
+	public void stopsPushingToAClientThatDisconnected() {
+		Client leaving = this.connect();
+		Client staying = this.connect();
+		leaving.dispose();
+		this.broadcaster.broadcast(new ReservationsChangedEvent(this, Arrays.asList(1)));
+		assertThat(leaving.changes).isEmpty();
+		assertThat(staying.changes).hasSize(1);
+	}
+
+	@Test
+	public void keepsPushingPastAClientThatFails() {
+		Client failing = new Client() {
+
+			@Override
+			public Mono<Void> metadataPush(Payload payload) {
+				payload.release();
+				return Mono.error(new IllegalStateException("connection reset"));
+			}
+		};
+		this.broadcaster.register(failing);
+		Client healthy = this.connect();
+		this.broadcaster.broadcast(new ReservationsChangedEvent(this, Arrays.asList(1)));
+		this.broadcaster.broadcast(new ReservationsChangedEvent(this, Arrays.asList(2)));
+		assertThat(healthy.changes).extracting(ReservationChange::getVersion).containsExactly(1L, 2L);
+	}
+
+	private Client connect() {
+		Client client = new Client();
+		this.broadcaster.register(client);
+		return client;
+	}
+
+	private class Client extends AbstractRSocket {
+
+		private final List<ReservationChange> changes = new CopyOnWriteArrayList<>();
+
+		@Override
+		public Mono<Void> metadataPush(Payload payload) {
+			try {
+				this.changes.add(objectMapper.readValue(payload.getMetadataUtf8(), ReservationChange.class));
+				return Mono.empty();
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			finally {
+				payload.release();
+			}
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package com.example.reservationservice;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+	* Covers what the codecs write for the ingest acknowledgements and read from an id lookup, in both
+	* encodings a connection can negotiate.
+	*/
+public class ReservationCodecTests {
+
+	private final ReservationCodec json = new JsonReservationCodec(new ObjectMapper());
+	private final ReservationCodec binary = new BinaryReservationCodec();
+
+	@Test
+	public void jsonWritesAnAckAsAnObject() {
+		ByteBuf ack = this.json.encode(ByteBufAllocator.DEFAULT, new ReservationBatchAck(3, 500));
+		assertThat(ack.toString(StandardCharsets.UTF_8)).isEqualTo("{\"batch\":3,\"rows\":500}");
+		ack.release();
+	}
+
+	@Test
+	public void binaryWritesAnAckAsTheBatchThenTheRows() {
+		ByteBuf ack = this.binary.encode(ByteBufAllocator.DEFAULT, new ReservationBatchAck(3, 500));
+		assertThat(ack.readLong()).isEqualTo(3);
+		assertThat(ack.readInt()).isEqualTo(500);
+		assertThat(ack.isReadable()).isFalse();
+		ack.release();
+	}
+
+	@Test
+	public void bothCodecsReadTheIdOfALookup() {
+		for (ReservationCodec codec : new ReservationCodec[]{this.json, this.binary}) {
+			ByteBuf request = codec.encode(ByteBufAllocator.DEFAULT, new Reservation(42, null));
+			assertThat(codec.decode(request).getId()).as(codec.mimeType()).isEqualTo(42);
+			request.release();
+		}
+	}
+}
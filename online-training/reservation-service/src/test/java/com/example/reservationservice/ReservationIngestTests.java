@@ -0,0 +1,60 @@
+package com.example.reservationservice;
+
+import io.rsocket.exceptions.RejectedException;
+import org.junit.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+
+/**
+	* Runs {@link ReservationIngest} against a mocked repository whose inserts note how much database headroom
+	* {@link AdmissionControl} reports while they run, with a single database permit to go round.
+	*/
+public class ReservationIngestTests {
+
+	private final ReservationRepository repository = mock(ReservationRepository.class);
+	private final AdmissionControl admissionControl = new AdmissionControl(1, 32, Duration.ofSeconds(1), Duration.ofSeconds(1));
+	private final List<Object> events = new ArrayList<>();
+	private final ReservationIngest ingest = new ReservationIngest(this.repository, this.admissionControl, this.events::add,
+		2, Duration.ofSeconds(5), 1);
+
+	@Test
+	public void takesADatabasePermitForEveryBatch() {
+		List<Double> availabilityDuringInsert = new ArrayList<>();
+		given(this.repository.insertBatch(anyList())).willAnswer(invocation -> Mono.fromCallable(() -> {
+			availabilityDuringInsert.add(this.admissionControl.forConnection().availability());
+			List<?> batch = invocation.getArgument(0);
+			return batch.size() == 2 ? Arrays.asList(1, 2) : Arrays.asList(3);
+		}));
+		StepVerifier.create(this.ingest.ingest(Flux.just(new Reservation(null, "A"), new Reservation(null, "B"), new Reservation(null, "C"))))
+			.expectNext(new ReservationBatchAck(1, 2), new ReservationBatchAck(2, 1))
+			.verifyComplete();
+		assertThat(availabilityDuringInsert).containsExactly(0.0, 0.0);
+		assertThat(this.admissionControl.forConnection().availability()).isEqualTo(1.0);
+		assertThat(this.events).hasSize(2);
+	}
+
+	@Test
+	public void rejectsABatchWhileEveryPermitIsTaken() {
+		Disposable held = this.admissionControl.withDatabasePermit(Mono::never).subscribe();
+		StepVerifier.create(this.ingest.ingest(Flux.just(new Reservation(null, "A"))))
+			.expectError(RejectedException.class)
+			.verify();
+		then(this.repository).should(never()).insertBatch(anyList());
+		held.dispose();
+		assertThat(this.admissionControl.forConnection().availability()).isEqualTo(1.0);
+	}
+}
@@ -0,0 +1,75 @@
+package com.example.reservationservice;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.BDDMockito.then;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+
+/**
+	* Runs a two-entry {@link ReservationLookupCache} in front of a mocked repository that answers every id
+	* with a reservation named after it.
+	*/
+public class ReservationLookupCacheTests {
+
+	private final ReservationRepository repository = mock(ReservationRepository.class);
+	private final ReservationLookupCache cache = new ReservationLookupCache(this.repository, new SimpleMeterRegistry(), 2);
+
+	@Before
+	public void answerEveryId() {
+		given(this.repository.findById(any(Integer.class)))
+			.willAnswer(invocation -> Mono.just(new Reservation(invocation.getArgument(0), "reservation-" + invocation.getArgument(0))));
+	}
+
+	@Test
+	public void readsAReservationOnlyOnce() {
+		assertThat(this.cache.findById(1).block()).isEqualTo(new Reservation(1, "reservation-1"));
+		assertThat(this.cache.findById(1).block()).isEqualTo(new Reservation(1, "reservation-1"));
+		then(this.repository).should(times(1)).findById(1);
+		assertThat(this.cache.hits()).isEqualTo(1);
+		assertThat(this.cache.misses()).isEqualTo(1);
+	}
+
+	@Test
+	public void evictsTheLeastRecentlyUsedReservation() {
+		this.cache.findById(1).block();
+		this.cache.findById(2).block();
+		this.cache.findById(1).block();
+		this.cache.findById(3).block();
+		assertThat(this.cache.evictions()).isEqualTo(1);
+		this.cache.findById(1).block();
+		this.cache.findById(2).block();
+		then(this.repository).should(times(1)).findById(1);
+		then(this.repository).should(times(2)).findById(2);
+	}
+
+	@Test
+	public void dropsTheReservationsAChangeMentions() {
+		this.cache.findById(1).block();
+		this.cache.findById(2).block();
+		this.cache.invalidate(new ReservationsChangedEvent(this, Collections.singleton(1)));
+		assertThat(this.cache.size()).isEqualTo(1);
+		this.cache.invalidate(new ReservationsChangedEvent(this, null));
+		assertThat(this.cache.size()).isZero();
+	}
+
+	@Test
+	public void doesNotCacheALoadThatRacedAChange() {
+		MonoProcessor<Reservation> loading = MonoProcessor.create();
+		given(this.repository.findById(1)).willReturn(loading);
+		Mono<Reservation> lookup = this.cache.findById(1);
+		lookup.subscribe();
+		this.cache.invalidate(new ReservationsChangedEvent(this, Collections.singleton(1)));
+		loading.onNext(new Reservation(1, "before the change"));
+		assertThat(this.cache.size()).isZero();
+	}
+}
@@ -0,0 +1,85 @@
+package com.example.reservationservice;
+
+import org.junit.Test;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+	* Pages through ten reservations (ids 1 to 10) served from memory instead of SQL, optionally after a delay,
+	* noting the {@code after} and the size of every page the cursor asks for.
+	*/
+public class ReservationQueriesTests {
+
+	private final List<String> pages = new CopyOnWriteArrayList<>();
+	private volatile Duration latency = Duration.ZERO;
+
+	private final ReservationQueries queries = new ReservationQueries(null, 4) {
+
+		@Override
+		Flux<Reservation> fetch(String name, Integer after, int fetchSize) {
+			pages.add(after + ":" + fetchSize);
+			return Flux.range(after == null ? 1 : after + 1, 10)
+				.filter(id -> id <= 10)
+				.take(fetchSize)
+				.map(id -> new Reservation(id, "reservation-" + id))
+				.delaySubscription(latency);
+		}
+	};
+
+	@Test
+	public void pagesFollowDemandAndAShortPageCompletes() {
+		StepVerifier.create(this.queries.stream(new ReservationQuery()), 0)
+			.expectSubscription()
+			.then(() -> assertThat(this.pages).isEmpty())
+			.thenRequest(3)
+			.expectNextCount(3)
+			.then(() -> assertThat(this.pages).containsExactly("null:3"))
+			.thenRequest(10)
+			.expectNextCount(7)
+			.verifyComplete();
+		assertThat(this.pages).containsExactly("null:3", "3:4", "7:4");
+	}
+
+	@Test
+	public void demandThatArrivesDuringAPageWaitsForIt() throws InterruptedException {
+		this.latency = Duration.ofMillis(50);
+		List<Reservation> received = new CopyOnWriteArrayList<>();
+		BaseSubscriber<Reservation> subscriber = new BaseSubscriber<Reservation>() {
+
+			@Override
+			protected void hookOnSubscribe(Subscription subscription) {
+			}
+
+			@Override
+			protected void hookOnNext(Reservation reservation) {
+				received.add(reservation);
+			}
+		};
+		this.queries.stream(new ReservationQuery()).subscribe(subscriber);
+		subscriber.request(2);
+		subscriber.request(2);
+		long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+		while (received.size() < 4) {
+			assertThat(System.nanoTime()).as("waited too long for the second page").isLessThan(deadline);
+			Thread.sleep(5);
+		}
+		subscriber.dispose();
+		assertThat(this.pages).containsExactly("null:2", "2:2");
+	}
+
+	@Test
+	public void stopsAtTheLimitWithoutAnotherQuery() {
+		StepVerifier.create(this.queries.stream(new ReservationQuery(null, 2, 5)))
+			.expectNextCount(5)
+			.verifyComplete();
+		assertThat(this.pages).containsExactly("2:4", "6:1");
+	}
+}
@@ -0,0 +1,85 @@
+package com.example.reservationservice;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+	* Builds snapshots from whatever {@code rows} holds when the cache asks for them instead of a database,
+	* counting how many times it asks.
+	*/
+public class ReservationSnapshotCacheTests {
+
+	private final ReservationCodec json = new JsonReservationCodec(new ObjectMapper());
+	private final ReservationCodec binary = new BinaryReservationCodec();
+	private final AtomicInteger queries = new AtomicInteger();
+	private volatile Flux<Reservation> rows = Flux.just(new Reservation(1, "Josh"), new Reservation(2, "Cornelia"));
+
+	private final ReservationSnapshotCache cache = new ReservationSnapshotCache(null) {
+
+		@Override
+		Flux<Reservation> all() {
+			queries.incrementAndGet();
+			return rows;
+		}
+	};
+
+	@Test
+	public void readsTheTableOnceForEverySubscriber() {
+		for (int i = 0; i < 2; i++) {
+			StepVerifier.create(this.cache.snapshot(this.binary).map(bytes -> this.binary.decode(Unpooled.wrappedBuffer(bytes))))
+				.expectNext(new Reservation(1, "Josh"), new Reservation(2, "Cornelia"))
+				.verifyComplete();
+		}
+		assertThat(this.queries).hasValue(1);
+		assertThat(this.cache.isCached(this.binary)).isTrue();
+	}
+
+	@Test
+	public void dropsOnlyTheSnapshotThatFailed() {
+		this.cache.snapshot(this.json).blockLast();
+		this.rows = Flux.error(new IllegalStateException("the database went away"));
+		StepVerifier.create(this.cache.snapshot(this.binary))
+			.expectErrorMessage("the database went away")
+			.verify();
+		assertThat(this.cache.isCached(this.json)).isTrue();
+		assertThat(this.cache.isCached(this.binary)).isFalse();
+		this.rows = Flux.just(new Reservation(1, "Josh"));
+		StepVerifier.create(this.cache.snapshot(this.binary))
+			.expectNextCount(1)
+			.verifyComplete();
+		assertThat(this.queries).hasValue(3);
+	}
+
+	@Test
+	public void aFailureAfterAChangeKeepsTheSnapshotBuiltSince() {
+		DirectProcessor<Reservation> stale = DirectProcessor.create();
+		this.rows = stale;
+		this.cache.snapshot(this.json).subscribe(bytes -> {
+		}, error -> {
+		});
+		this.cache.invalidate(new ReservationsChangedEvent(this, null));
+		this.rows = Flux.just(new Reservation(1, "Josh"));
+		this.cache.snapshot(this.json).blockLast();
+		stale.onError(new IllegalStateException("the database went away"));
+		assertThat(this.cache.isCached(this.json)).isTrue();
+		this.cache.snapshot(this.json).blockLast();
+		assertThat(this.queries).hasValue(2);
+	}
+
+	@Test
+	public void dropsEverySnapshotOnAChange() {
+		this.cache.snapshot(this.json).blockLast();
+		this.cache.snapshot(this.binary).blockLast();
+		this.cache.invalidate(new ReservationsChangedEvent(this, null));
+		assertThat(this.cache.isCached(this.json)).isFalse();
+		assertThat(this.cache.isCached(this.binary)).isFalse();
+	}
+}
@@ -0,0 +1,142 @@
+package com.example.reservationservice;
+
+import com.example.r2dbc.pool.PooledConnectionFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryMetadata;
+import org.junit.After;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.springframework.http.HttpCookie;
+import org.springframework.http.ResponseCookie;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+	* Routes between a primary pool and a single-connection replica pool whose connections only know their own name,
+	* so every test can tell where a connection came from.
+	*/
+public class RoutingConnectionFactoryTests {
+
+	private final MeterRegistry registry = new SimpleMeterRegistry();
+	private final PooledConnectionFactory primary = this.pool("primary", 2);
+	private final PooledConnectionFactory replica = this.pool("replica", 1);
+	private final RoutingConnectionFactory routing = new RoutingConnectionFactory(this.primary,
+		Collections.singletonList(this.replica), RoutingConnectionFactory.Selection.ROUND_ROBIN, Duration.ofMillis(50),
+		this.registry);
+	private final List<Connection> held = new ArrayList<>();
+
+	@After
+	public void dispose() {
+		this.held.forEach(connection -> Mono.from(connection.close()).block());
+		this.primary.dispose();
+		this.replica.dispose();
+	}
+
+	@Test
+	public void writesGoToThePrimary() {
+		assertThat(this.connect(this.routing.create())).isEqualTo("primary");
+	}
+
+	@Test
+	public void readsGoToAReplica() {
+		assertThat(this.connect(RoutingConnectionFactory.reading(this.routing.create()))).isEqualTo("replica");
+	}
+
+	@Test
+	public void readsAfterAWriteInTheSameRequestGoToThePrimary() {
+		RecentWrites writes = new RecentWrites(false);
+		Mono<Connection> readAfterWrite = RoutingConnectionFactory
+			.writing(Mono.just("written"))
+			.then(RoutingConnectionFactory.reading(this.routing.create()))
+			.subscriberContext(context -> context.put(RecentWrites.class, writes));
+		assertThat(this.connect(readAfterWrite)).isEqualTo("primary");
+		assertThat(writes.wroteThisRequest()).isTrue();
+	}
+
+	@Test
+	public void readsWithinTheWindowOfAnEarlierWriteGoToThePrimary() {
+		Mono<Connection> read = RoutingConnectionFactory
+			.reading(this.routing.create())
+			.subscriberContext(context -> context.put(RecentWrites.class, new RecentWrites(true)));
+		assertThat(this.connect(read)).isEqualTo("primary");
+	}
+
+	@Test
+	public void readsFallBackToThePrimaryWhenTheReplicaIsBusy() {
+		assertThat(this.connect(RoutingConnectionFactory.reading(this.routing.create()))).isEqualTo("replica");
+		assertThat(this.connect(RoutingConnectionFactory.reading(this.routing.create()))).isEqualTo("primary");
+		assertThat(this.registry.get("r2dbc.routing.fallbacks").counter().count()).isEqualTo(1);
+	}
+
+	@Test
+	public void theFilterRemembersAWriteForTheWindow() {
+		MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.post("/reservations"));
+		new ReadYourWritesFilter(Duration.ofSeconds(5))
+			.filter(exchange, served -> RoutingConnectionFactory.writing(Mono.<Void>empty())
+				.then(served.getResponse().setComplete()))
+			.block();
+		ResponseCookie cookie = exchange.getResponse().getCookies().getFirst(ReadYourWritesFilter.COOKIE);
+		assertThat(cookie).isNotNull();
+		assertThat(cookie.getMaxAge()).isEqualTo(Duration.ofSeconds(5));
+	}
+
+	@Test
+	public void theFilterSendsAClientWithTheCookieToThePrimary() {
+		MockServerWebExchange exchange = MockServerWebExchange.from(MockServerHttpRequest.get("/reservations")
+			.cookie(new HttpCookie(ReadYourWritesFilter.COOKIE, "true")));
+		AtomicBoolean wroteRecently = new AtomicBoolean();
+		new ReadYourWritesFilter(Duration.ofSeconds(5))
+			.filter(exchange, served -> Mono.subscriberContext()
+				.doOnNext(context -> wroteRecently.set(context.get(RecentWrites.class).wroteRecently()))
+				.then())
+			.block();
+		assertThat(wroteRecently).isTrue();
+		assertThat(exchange.getResponse().getCookies()).doesNotContainKey(ReadYourWritesFilter.COOKIE);
+	}
+
+	private String connect(Mono<Connection> connection) {
+		Connection connected = connection.block(Duration.ofSeconds(5));
+		this.held.add(connected);
+		return connected.toString().replaceAll("pooled connection from (\\w+) .*", "$1");
+	}
+
+	private PooledConnectionFactory pool(String name, int maxSize) {
+		ConnectionFactory connections = new ConnectionFactory() {
+
+			@Override
+			public Publisher<? extends Connection> create() {
+				return Mono.fromCallable(() -> (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+						switch (method.getName()) {
+							case "close":
+								return Mono.empty();
+							case "toString":
+								return name;
+							default:
+								throw new UnsupportedOperationException(method.getName());
+						}
+					}));
+			}
+
+			@Override
+			public ConnectionFactoryMetadata getMetadata() {
+				return () -> name;
+			}
+		};
+		return new PooledConnectionFactory(connections, this.registry, name, 0, maxSize, Duration.ofSeconds(5), "",
+			Duration.ZERO, Duration.ofHours(1), Duration.ofHours(1));
+	}
+}
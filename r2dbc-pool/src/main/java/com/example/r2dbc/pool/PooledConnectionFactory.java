@@ -0,0 +1,386 @@
+package com.example.r2dbc.pool;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryMetadata;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+	* A connection pool in front of another {@link ConnectionFactory}, holding between {@code minSize} and {@code maxSize}
+	* physical connections. {@code PooledConnectionFactoryTests} covers each of these rules:
+	* <ul>
+	* <li>Acquire: a caller gets the most recently returned idle connection, else a new one while fewer than
+	* {@code maxSize} are open, else it waits in line. A waiter fails with a {@link TimeoutException} after
+	* {@code acquireTimeout}, and one that cancels leaves the line.</li>
+	* <li>Validation: an idle connection that hasn't been used for {@code validateAfterIdle} runs {@code validationQuery}
+	* first; if that fails the connection is closed and the caller acquires again.</li>
+	* <li>Release: callers get a proxy whose first {@code close()} returns the connection, to the longest waiter if there
+	* is one and to the idle set otherwise; the proxy can't be used after that.</li>
+	* <li>Eviction: every {@code evictionInterval}, idle connections beyond {@code minSize} that have been idle for
+	* {@code maxIdleTime} are closed, and the pool opens connections back up to {@code minSize}.</li>
+	* <li>Disposal: idle connections are closed, waiters fail, and connections still in use are closed as they come
+	* back.</li>
+	* </ul>
+	* The pool reports acquire latency and timeouts and the pending, in-use, idle and allocated counts as
+	* {@code r2dbc.pool.*} meters tagged with the pool name.
+	*/
+public class PooledConnectionFactory implements ConnectionFactory {
+
+	private static final Log log = LogFactory.getLog(PooledConnectionFactory.class);
+
+	private final ConnectionFactory delegate;
+	private final String name;
+	private final int minSize;
+	private final int maxSize;
+	private final Duration acquireTimeout;
+	private final String validationQuery;
+	private final long validateAfterIdle;
+	private final long maxIdleTime;
+	private final Deque<Idle> idle = new ArrayDeque<>();
+	private final Deque<Waiter> pending = new ArrayDeque<>();
+	private final Timer acquired;
+	private final Counter timeouts;
+	private final Disposable eviction;
+	private int allocated;
+	private int inUse;
+	private boolean disposed;
+
+	public PooledConnectionFactory(ConnectionFactory delegate, MeterRegistry registry, String name, int minSize, int maxSize,
+		Duration acquireTimeout, String validationQuery, Duration validateAfterIdle, Duration maxIdleTime, Duration evictionInterval) {
+		Assert.isTrue(minSize >= 0 && maxSize >= 1 && minSize <= maxSize, "the pool needs 0 <= minSize <= maxSize and maxSize >= 1");
+		this.delegate = delegate;
+		this.name = name;
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.acquireTimeout = acquireTimeout;
+		this.validationQuery = validationQuery;
+		this.validateAfterIdle = validateAfterIdle.toNanos();
+		this.maxIdleTime = maxIdleTime.toNanos();
+		this.acquired = Timer.builder("r2dbc.pool.acquire")
+			.description("time spent waiting for a pooled connection")
+			.tag("pool", name)
+			.publishPercentileHistogram()
+			.register(registry);
+		this.timeouts = Counter.builder("r2dbc.pool.acquire.timeouts")
+			.tag("pool", name)
+			.register(registry);
+		Gauge.builder("r2dbc.pool.pending", this, PooledConnectionFactory::pending).tag("pool", name).register(registry);
+		Gauge.builder("r2dbc.pool.in-use", this, PooledConnectionFactory::inUse).tag("pool", name).register(registry);
+		Gauge.builder("r2dbc.pool.idle", this, PooledConnectionFactory::idle).tag("pool", name).register(registry);
+		Gauge.builder("r2dbc.pool.allocated", this, PooledConnectionFactory::allocated).tag("pool", name).register(registry);
+		this.eviction = Flux
+			.interval(evictionInterval, evictionInterval)
+			.subscribe(tick -> this.evict());
+		this.fill();
+	}
+
+	@Override
+	public Mono<Connection> create() {
+		return this.create(this.acquireTimeout);
+	}
+
+	/**
+		* Like {@link #create()}, but gives up after {@code acquireTimeout} instead of the pool's own acquire timeout.
+		*/
+	public Mono<Connection> create(Duration acquireTimeout) {
+		return Mono
+			.<Connection>create(sink -> {
+				Waiter waiter = new Waiter(sink);
+				sink.onCancel(() -> this.cancel(waiter));
+				this.acquire(waiter);
+			})
+			.timeout(acquireTimeout)
+			.onErrorMap(TimeoutException.class, e -> {
+				this.timeouts.increment();
+				return new TimeoutException("no connection from pool " + this.name + " became available within " + acquireTimeout);
+			});
+	}
+
+	@Override
+	public ConnectionFactoryMetadata getMetadata() {
+		return this.delegate.getMetadata();
+	}
+
+	public void dispose() {
+		List<Idle> closing;
+		List<Waiter> waiting;
+		synchronized (this) {
+			this.disposed = true;
+			closing = new ArrayList<>(this.idle);
+			waiting = new ArrayList<>(this.pending);
+			this.idle.clear();
+			this.pending.clear();
+			this.allocated -= closing.size();
+		}
+		this.eviction.dispose();
+		closing.forEach(idle -> this.close(idle.connection));
+		waiting.forEach(waiter -> waiter.fail(new IllegalStateException("pool " + this.name + " has been closed")));
+	}
+
+	private void acquire(Waiter waiter) {
+		Idle candidate;
+		synchronized (this) {
+			if (this.disposed) {
+				waiter.fail(new IllegalStateException("pool " + this.name + " has been closed"));
+				return;
+			}
+			candidate = this.idle.pollFirst();
+			if (candidate == null) {
+				if (this.allocated >= this.maxSize) {
+					this.pending.addLast(waiter);
+					return;
+				}
+				this.allocated++;
+			}
+		}
+		if (candidate == null) {
+			this.open(waiter);
+		}
+		else if (StringUtils.hasText(this.validationQuery) && System.nanoTime() - candidate.since >= this.validateAfterIdle) {
+			this.validate(candidate.connection, waiter);
+		}
+		else {
+			this.deliver(candidate.connection, waiter);
+		}
+	}
+
+	private void open(Waiter waiter) {
+		Mono.from(this.delegate.create())
+			.subscribe(connection -> this.deliver(connection, waiter), error -> {
+				synchronized (this) {
+					this.allocated--;
+				}
+				waiter.fail(error);
+			});
+	}
+
+	private void validate(Connection connection, Waiter waiter) {
+		Flux.from(connection.createStatement(this.validationQuery).execute())
+			.flatMap(result -> result.map((row, metadata) -> row))
+			.then()
+			.subscribe(null, error -> {
+				log.info("discarding a connection from pool " + this.name + " that failed validation: " + error.getMessage());
+				this.discard(connection);
+				this.acquire(waiter);
+			}, () -> this.deliver(connection, waiter));
+	}
+
+	private void deliver(Connection connection, Waiter waiter) {
+		if (!waiter.claim()) {
+			this.release(connection);
+			return;
+		}
+		synchronized (this) {
+			this.inUse++;
+		}
+		this.acquired.record(System.nanoTime() - waiter.since, TimeUnit.NANOSECONDS);
+		waiter.sink.success(this.handOut(connection));
+	}
+
+	private Connection handOut(Connection connection) {
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+			new PooledConnection(connection));
+	}
+
+	private void returned(Connection connection) {
+		synchronized (this) {
+			this.inUse--;
+		}
+		this.release(connection);
+	}
+
+	private void release(Connection connection) {
+		Waiter next;
+		synchronized (this) {
+			if (this.disposed) {
+				this.allocated--;
+				next = null;
+			}
+			else {
+				next = this.pending.pollFirst();
+				if (next == null) {
+					this.idle.addFirst(new Idle(connection));
+					return;
+				}
+			}
+		}
+		if (next == null) {
+			this.close(connection);
+		}
+		else {
+			this.deliver(connection, next);
+		}
+	}
+
+	private void discard(Connection connection) {
+		synchronized (this) {
+			this.allocated--;
+		}
+		this.close(connection);
+	}
+
+	private void cancel(Waiter waiter) {
+		if (waiter.claim()) {
+			synchronized (this) {
+				this.pending.remove(waiter);
+			}
+		}
+	}
+
+	private void evict() {
+		List<Connection> expired = new ArrayList<>();
+		long now = System.nanoTime();
+		synchronized (this) {
+			Iterator<Idle> oldestFirst = this.idle.descendingIterator();
+			while (oldestFirst.hasNext() && this.allocated > this.minSize) {
+				Idle candidate = oldestFirst.next();
+				if (now - candidate.since < this.maxIdleTime) {
+					break;
+				}
+				oldestFirst.remove();
+				this.allocated--;
+				expired.add(candidate.connection);
+			}
+		}
+		expired.forEach(this::close);
+		this.fill();
+	}
+
+	private void fill() {
+		int missing;
+		synchronized (this) {
+			missing = this.disposed ? 0 : this.minSize - this.allocated;
+			if (missing > 0) {
+				this.allocated += missing;
+			}
+		}
+		for (int i = 0; i < missing; i++) {
+			Mono.from(this.delegate.create())
+				.subscribe(this::release, error -> {
+					synchronized (this) {
+						this.allocated--;
+					}
+					log.warn("couldn't open a connection for pool " + this.name, error);
+				});
+		}
+	}
+
+	private void close(Connection connection) {
+		Mono.from(connection.close())
+			.subscribe(null, error -> log.debug("couldn't close a connection from pool " + this.name, error));
+	}
+
+	public synchronized int pending() {
+		return this.pending.size();
+	}
+
+	public synchronized int inUse() {
+		return this.inUse;
+	}
+
+	public synchronized int idle() {
+		return this.idle.size();
+	}
+
+	public synchronized int allocated() {
+		return this.allocated;
+	}
+
+	/**
+		* What callers of {@link #create()} get: every call goes to the pooled connection, except {@code close()},
+		* which hands the connection back to the pool instead (once), after which the handle can no longer be used.
+		*/
+	private class PooledConnection implements InvocationHandler {
+
+		private final Connection connection;
+		private final AtomicBoolean closed = new AtomicBoolean();
+
+		PooledConnection(Connection connection) {
+			this.connection = connection;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+				case "close":
+					return Mono.fromRunnable(() -> {
+						if (this.closed.compareAndSet(false, true)) {
+							returned(this.connection);
+						}
+					});
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "toString":
+					return "pooled connection from " + name + " [" + this.connection + "]";
+				default:
+					if (this.closed.get()) {
+						throw new IllegalStateException("the connection has already been returned to pool " + name);
+					}
+					try {
+						return method.invoke(this.connection, args);
+					}
+					catch (InvocationTargetException e) {
+						throw e.getCause();
+					}
+			}
+		}
+	}
+
+	private static class Idle {
+
+		private final Connection connection;
+		private final long since = System.nanoTime();
+
+		Idle(Connection connection) {
+			this.connection = connection;
+		}
+	}
+
+	private static class Waiter {
+
+		private final MonoSink<Connection> sink;
+		private final long since = System.nanoTime();
+		private final AtomicBoolean done = new AtomicBoolean();
+
+		Waiter(MonoSink<Connection> sink) {
+			this.sink = sink;
+		}
+
+		boolean claim() {
+			return this.done.compareAndSet(false, true);
+		}
+
+		void fail(Throwable error) {
+			if (this.claim()) {
+				this.sink.error(error);
+			}
+		}
+	}
+}
@@ -0,0 +1,245 @@
+package com.example.r2dbc.pool;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.ConnectionFactory;
+import io.r2dbc.spi.ConnectionFactoryMetadata;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Statement;
+import org.junit.After;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+	* Runs {@link PooledConnectionFactory} against an in-memory {@link ConnectionFactory} whose connections count how
+	* often they were closed and answer the validation query until the test makes them fail it.
+	*/
+public class PooledConnectionFactoryTests {
+
+	private final MeterRegistry registry = new SimpleMeterRegistry();
+	private final List<FakeConnection> opened = new ArrayList<>();
+	private final List<PooledConnectionFactory> pools = new ArrayList<>();
+
+	@After
+	public void dispose() {
+		this.pools.forEach(PooledConnectionFactory::dispose);
+	}
+
+	@Test
+	public void timesOutWhenEveryConnectionIsInUse() {
+		PooledConnectionFactory pool = this.pool(0, 1, Duration.ofMillis(50), Duration.ofHours(1));
+		pool.create().block();
+		assertThatThrownBy(() -> pool.create().block())
+			.hasCauseInstanceOf(TimeoutException.class);
+		assertThat(pool.pending()).isZero();
+		assertThat(this.registry.get("r2dbc.pool.acquire.timeouts").counter().count()).isEqualTo(1);
+	}
+
+	@Test
+	public void handsAReturnedConnectionToTheNextWaiter() {
+		PooledConnectionFactory pool = this.pool(0, 1, Duration.ofSeconds(5), Duration.ofHours(1));
+		Connection held = pool.create().block();
+		CompletableFuture<Connection> waiting = pool.create().toFuture();
+		assertThat(pool.pending()).isEqualTo(1);
+		Mono.from(held.close()).block();
+		assertThat(waiting).isCompleted();
+		assertThat(pool.pending()).isZero();
+		assertThat(pool.inUse()).isEqualTo(1);
+		assertThat(this.opened).hasSize(1);
+	}
+
+	@Test
+	public void handsOutTheMostRecentlyReturnedConnectionFirst() {
+		PooledConnectionFactory pool = this.pool(0, 2, Duration.ofSeconds(5), Duration.ofHours(1));
+		Connection first = pool.create().block();
+		Connection second = pool.create().block();
+		Mono.from(first.close()).block();
+		Mono.from(second.close()).block();
+		assertThat(pool.create().block().toString()).contains(this.opened.get(1).toString());
+	}
+
+	@Test
+	public void returnsAConnectionOnlyOnce() {
+		PooledConnectionFactory pool = this.pool(0, 1, Duration.ofSeconds(5), Duration.ofHours(1));
+		Connection held = pool.create().block();
+		Mono.from(held.close()).block();
+		Mono.from(held.close()).block();
+		assertThat(pool.idle()).isEqualTo(1);
+		assertThat(pool.inUse()).isZero();
+		assertThatThrownBy(() -> held.createStatement("select 1"))
+			.isInstanceOf(IllegalStateException.class)
+			.hasMessageContaining("already been returned");
+	}
+
+	@Test
+	public void forgetsAWaiterThatCancelled() {
+		PooledConnectionFactory pool = this.pool(0, 1, Duration.ofSeconds(5), Duration.ofHours(1));
+		Connection held = pool.create().block();
+		Disposable waiting = pool.create().subscribe();
+		assertThat(pool.pending()).isEqualTo(1);
+		waiting.dispose();
+		assertThat(pool.pending()).isZero();
+		Mono.from(held.close()).block();
+		assertThat(pool.inUse()).isZero();
+		assertThat(pool.idle()).isEqualTo(1);
+	}
+
+	@Test
+	public void replacesAConnectionThatFailsValidation() {
+		PooledConnectionFactory pool = this.pool(0, 1, Duration.ofSeconds(5), Duration.ofHours(1));
+		Mono.from(pool.create().block().close()).block();
+		FakeConnection broken = this.opened.get(0);
+		broken.healthy = false;
+		Connection replacement = pool.create().block();
+		assertThat(this.opened).hasSize(2);
+		assertThat(replacement.toString()).contains(this.opened.get(1).toString());
+		assertThat(broken.closed).isEqualTo(1);
+		assertThat(pool.allocated()).isEqualTo(1);
+	}
+
+	@Test
+	public void evictsIdleConnectionsDownToMinSize() {
+		PooledConnectionFactory pool = this.pool(1, 3, Duration.ofSeconds(5), Duration.ofMillis(10));
+		List<Connection> held = new ArrayList<>();
+		for (int i = 0; i < 3; i++) {
+			held.add(pool.create().block());
+		}
+		held.forEach(connection -> Mono.from(connection.close()).block());
+		assertThat(pool.idle()).isEqualTo(3);
+		this.await(() -> pool.allocated() == 1);
+		assertThat(pool.idle()).isEqualTo(1);
+		assertThat(this.opened.stream().mapToInt(connection -> connection.closed).sum()).isEqualTo(2);
+	}
+
+	@Test
+	public void opensConnectionsBackUpToMinSize() {
+		PooledConnectionFactory pool = this.pool(2, 2, Duration.ofSeconds(5), Duration.ofHours(1));
+		assertThat(pool.idle()).isEqualTo(2);
+		this.opened.get(1).healthy = false;
+		pool.create().block();
+		assertThat(pool.allocated()).isEqualTo(1);
+		this.await(() -> pool.allocated() == 2);
+		assertThat(pool.idle()).isEqualTo(1);
+		assertThat(this.opened).hasSize(3);
+	}
+
+	@Test
+	public void disposeClosesIdleConnectionsAndFailsWaiters() {
+		PooledConnectionFactory pool = this.pool(1, 1, Duration.ofSeconds(5), Duration.ofHours(1));
+		assertThat(pool.idle()).isEqualTo(1);
+		Connection held = pool.create().block();
+		CompletableFuture<Connection> waiting = pool.create().toFuture();
+		pool.dispose();
+		assertThat(waiting).isCompletedExceptionally();
+		assertThatThrownBy(() -> pool.create().block())
+			.isInstanceOf(IllegalStateException.class)
+			.hasMessageContaining("has been closed");
+		assertThat(this.opened.get(0).closed).isZero();
+		Mono.from(held.close()).block();
+		assertThat(this.opened.get(0).closed).isEqualTo(1);
+		assertThat(pool.allocated()).isZero();
+	}
+
+	private PooledConnectionFactory pool(int minSize, int maxSize, Duration acquireTimeout, Duration maxIdleTime) {
+		ConnectionFactory connections = new ConnectionFactory() {
+
+			@Override
+			public Publisher<? extends Connection> create() {
+				return Mono.fromCallable(() -> {
+					FakeConnection connection = new FakeConnection(opened.size() + 1);
+					opened.add(connection);
+					return connection.proxy();
+				});
+			}
+
+			@Override
+			public ConnectionFactoryMetadata getMetadata() {
+				return () -> "fake";
+			}
+		};
+		PooledConnectionFactory pool = new PooledConnectionFactory(connections, this.registry, "test", minSize, maxSize,
+			acquireTimeout, "select 1", Duration.ZERO, maxIdleTime, Duration.ofMillis(10));
+		this.pools.add(pool);
+		return pool;
+	}
+
+	private void await(BooleanSupplier condition) {
+		long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+		while (!condition.getAsBoolean()) {
+			assertThat(System.nanoTime()).as("waited too long for the pool").isLessThan(deadline);
+			try {
+				Thread.sleep(5);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	/**
+		* A connection that only knows how to close and to run the validation query, built as a proxy so that it keeps
+		* up with whatever else the SPI's {@link Connection} declares.
+		*/
+	private static class FakeConnection {
+
+		private final int id;
+		private volatile boolean healthy = true;
+		private volatile int closed;
+
+		FakeConnection(int id) {
+			this.id = id;
+		}
+
+		Connection proxy() {
+			return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+						case "close":
+							return Mono.fromRunnable(() -> this.closed++);
+						case "createStatement":
+							return this.statement();
+						case "toString":
+							return this.toString();
+						default:
+							throw new UnsupportedOperationException(method.getName());
+					}
+				});
+		}
+
+		private Statement statement() {
+			return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[]{Statement.class},
+				(proxy, method, args) -> {
+					if (!method.getName().equals("execute")) {
+						throw new UnsupportedOperationException(method.getName());
+					}
+					return this.healthy ? Flux.just(this.result()) : Flux.error(new IllegalStateException("connection reset"));
+				});
+		}
+
+		private Result result() {
+			return (Result) Proxy.newProxyInstance(Result.class.getClassLoader(), new Class<?>[]{Result.class},
+				(proxy, method, args) -> Flux.just(1));
+		}
+
+		@Override
+		public String toString() {
+			return "connection-" + this.id;
+		}
+	}
+}
@@ -0,0 +1,207 @@
+package com.example.rsocket.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.rsocket.DuplexConnection;
+import io.rsocket.Frame;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.plugins.DuplexConnectionInterceptor;
+import io.rsocket.plugins.RSocketInterceptor;
+import io.rsocket.util.RSocketProxy;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+	* Micrometer instrumentation for RSocket, installed as plugins on a client or server RSocket factory.
+	* Every meter is tagged with the {@code side} (for example {@code client} or {@code server}) it was created for.
+	* <ul>
+	* <li>The connection plugin keeps the {@code rsocket.connections} gauge, counts {@code rsocket.frames} tagged by
+	* {@code direction} ({@code in} or {@code out}) and frame {@code type}, and counts {@code rsocket.bytes} tagged
+	* by {@code direction}.</li>
+	* <li>The RSocket plugin times every interaction as {@code rsocket.interaction}, tagged by {@code interaction}
+	* (for example {@code request-stream}) and the {@code outcome} signal that ended it. Streams and channels also
+	* time their first payload as {@code rsocket.interaction.first}, keep the {@code rsocket.streams.active} gauge,
+	* record every {@code request(n)} in {@code rsocket.request.n} and count {@code rsocket.cancellations}, all
+	* tagged by {@code interaction}.</li>
+	* </ul>
+	* Interactions aren't tagged by route or payload, so the number of meters stays fixed however clients use the
+	* connection.
+	*/
+public class RSocketMetrics {
+
+	private final MeterRegistry registry;
+	private final String side;
+	private final AtomicInteger connections = new AtomicInteger();
+	private final Map<String, AtomicInteger> activeStreams = new ConcurrentHashMap<>();
+	private final Map<String, Counter> frames = new ConcurrentHashMap<>();
+	private final Map<String, Counter> bytes = new ConcurrentHashMap<>();
+
+	public RSocketMetrics(MeterRegistry registry, String side) {
+		this.registry = registry;
+		this.side = side;
+		Gauge.builder("rsocket.connections", this.connections, AtomicInteger::get)
+			.tag("side", this.side)
+			.register(registry);
+	}
+
+	public DuplexConnectionInterceptor connectionInterceptor() {
+		return (type, connection) -> type == DuplexConnectionInterceptor.Type.SOURCE ? new MeteredDuplexConnection(connection) : connection;
+	}
+
+	public RSocketInterceptor interactionInterceptor() {
+		return MeteredRSocket::new;
+	}
+
+	private void count(String direction, Frame frame) {
+		String key = direction + ':' + frame.getType();
+		this.frames
+			.computeIfAbsent(key, k -> Counter.builder("rsocket.frames")
+				.tags("side", this.side, "direction", direction, "type", frame.getType().name())
+				.register(this.registry))
+			.increment();
+		this.bytes
+			.computeIfAbsent(direction, k -> Counter.builder("rsocket.bytes")
+				.baseUnit("bytes")
+				.tags("side", this.side, "direction", direction)
+				.register(this.registry))
+			.increment(frame.content().readableBytes());
+	}
+
+	private class MeteredDuplexConnection implements DuplexConnection {
+
+		private final DuplexConnection source;
+
+		MeteredDuplexConnection(DuplexConnection source) {
+			this.source = source;
+			connections.incrementAndGet();
+			source.onClose().doFinally(signal -> connections.decrementAndGet()).subscribe();
+		}
+
+		@Override
+		public Mono<Void> send(Publisher<Frame> frames) {
+			return this.source.send(Flux.from(frames).doOnNext(frame -> count("out", frame)));
+		}
+
+		@Override
+		public Flux<Frame> receive() {
+			return this.source.receive().doOnNext(frame -> count("in", frame));
+		}
+
+		@Override
+		public double availability() {
+			return this.source.availability();
+		}
+
+		@Override
+		public Mono<Void> onClose() {
+			return this.source.onClose();
+		}
+
+		@Override
+		public void dispose() {
+			this.source.dispose();
+		}
+
+		@Override
+		public boolean isDisposed() {
+			return this.source.isDisposed();
+		}
+	}
+
+	private class MeteredRSocket extends RSocketProxy {
+
+		MeteredRSocket(RSocket source) {
+			super(source);
+		}
+
+		@Override
+		public Mono<Void> fireAndForget(Payload payload) {
+			return this.time("fire-and-forget", super.fireAndForget(payload));
+		}
+
+		@Override
+		public Mono<Payload> requestResponse(Payload payload) {
+			return this.time("request-response", super.requestResponse(payload));
+		}
+
+		@Override
+		public Flux<Payload> requestStream(Payload payload) {
+			return this.time("request-stream", super.requestStream(payload));
+		}
+
+		@Override
+		public Flux<Payload> requestChannel(Publisher<Payload> payloads) {
+			return this.time("request-channel", super.requestChannel(payloads));
+		}
+
+		@Override
+		public Mono<Void> metadataPush(Payload payload) {
+			return this.time("metadata-push", super.metadataPush(payload));
+		}
+
+		private <T> Mono<T> time(String interaction, Mono<T> mono) {
+			return Mono.defer(() -> {
+				Timer.Sample sample = Timer.start(registry);
+				return mono.doFinally(signal -> sample.stop(this.timer("rsocket.interaction", interaction, signal.toString())));
+			});
+		}
+
+		private <T> Flux<T> time(String interaction, Flux<T> flux) {
+			return Flux.defer(() -> {
+				Timer.Sample sample = Timer.start(registry);
+				long start = System.nanoTime();
+				AtomicBoolean first = new AtomicBoolean();
+				AtomicInteger active = activeStreams.computeIfAbsent(interaction, key -> {
+					AtomicInteger gauge = new AtomicInteger();
+					Gauge.builder("rsocket.streams.active", gauge, AtomicInteger::get)
+						.tags(this.tags(interaction))
+						.register(registry);
+					return gauge;
+				});
+				DistributionSummary demand = DistributionSummary.builder("rsocket.request.n")
+					.tags(this.tags(interaction))
+					.register(registry);
+				return flux
+					.doOnSubscribe(subscription -> active.incrementAndGet())
+					.doOnRequest(n -> demand.record(Math.min(n, Integer.MAX_VALUE)))
+					.doOnNext(item -> {
+						if (first.compareAndSet(false, true)) {
+							this.timer("rsocket.interaction.first", interaction, "ON_NEXT").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+						}
+					})
+					.doOnCancel(() -> Counter.builder("rsocket.cancellations")
+						.tags(this.tags(interaction))
+						.register(registry)
+						.increment())
+					.doFinally(signal -> {
+						active.decrementAndGet();
+						sample.stop(this.timer("rsocket.interaction", interaction, signal.toString()));
+					});
+			});
+		}
+
+		private Timer timer(String name, String interaction, String outcome) {
+			return Timer.builder(name)
+				.tags(this.tags(interaction))
+				.tag("outcome", outcome)
+				.publishPercentileHistogram()
+				.register(registry);
+		}
+
+		private Tags tags(String interaction) {
+			return Tags.of("side", side, "interaction", interaction);
+		}
+	}
+}
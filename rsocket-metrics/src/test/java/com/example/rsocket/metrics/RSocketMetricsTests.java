@@ -0,0 +1,123 @@
+package com.example.rsocket.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.Unpooled;
+import io.rsocket.AbstractRSocket;
+import io.rsocket.DuplexConnection;
+import io.rsocket.Frame;
+import io.rsocket.Payload;
+import io.rsocket.RSocket;
+import io.rsocket.plugins.DuplexConnectionInterceptor;
+import io.rsocket.util.DefaultPayload;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+	* Installs the plugins on an in-memory RSocket that answers every request straight away and on a connection that
+	* receives one keep-alive frame, then reads the meters back from a {@link SimpleMeterRegistry}.
+	*/
+public class RSocketMetricsTests {
+
+	private final MeterRegistry registry = new SimpleMeterRegistry();
+	private final RSocketMetrics metrics = new RSocketMetrics(this.registry, "server");
+
+	private final RSocket rSocket = this.metrics.interactionInterceptor().apply(new AbstractRSocket() {
+
+		@Override
+		public Mono<Payload> requestResponse(Payload payload) {
+			return Mono.just(payload);
+		}
+
+		@Override
+		public Flux<Payload> requestStream(Payload payload) {
+			return Flux.range(1, 10).map(i -> DefaultPayload.create("reservation-" + i));
+		}
+	});
+
+	@Test
+	public void timesAnInteractionBySideInteractionAndOutcome() {
+		this.rSocket.requestResponse(DefaultPayload.create("1")).block();
+		assertThat(this.registry.get("rsocket.interaction")
+			.tags("side", "server", "interaction", "request-response", "outcome", "onComplete")
+			.timer()
+			.count()).isEqualTo(1);
+	}
+
+	@Test
+	public void recordsTheDemandFirstPayloadAndCancellationOfAStream() {
+		this.rSocket.requestStream(DefaultPayload.create("")).subscribe(new BaseSubscriber<Payload>() {
+
+			@Override
+			protected void hookOnSubscribe(Subscription subscription) {
+				assertThat(registry.get("rsocket.streams.active").gauge().value()).isEqualTo(1);
+				request(2);
+			}
+
+			@Override
+			protected void hookOnNext(Payload payload) {
+				if (payload.getDataUtf8().equals("reservation-2")) {
+					cancel();
+				}
+			}
+		});
+		assertThat(this.registry.get("rsocket.request.n").summary().totalAmount()).isEqualTo(2);
+		assertThat(this.registry.get("rsocket.interaction.first").timer().count()).isEqualTo(1);
+		assertThat(this.registry.get("rsocket.cancellations").counter().count()).isEqualTo(1);
+		assertThat(this.registry.get("rsocket.interaction").tags("outcome", "cancel").timer().count()).isEqualTo(1);
+		assertThat(this.registry.get("rsocket.streams.active").tags("interaction", "request-stream").gauge().value()).isZero();
+	}
+
+	@Test
+	public void countsTheFramesAndBytesOfAConnectionWhileItIsOpen() {
+		Frame keepAlive = Frame.Keepalive.from(Unpooled.EMPTY_BUFFER, true);
+		MonoProcessor<Void> closed = MonoProcessor.create();
+		DuplexConnection connection = this.metrics.connectionInterceptor().apply(DuplexConnectionInterceptor.Type.SOURCE,
+			new DuplexConnection() {
+
+				@Override
+				public Mono<Void> send(Publisher<Frame> frames) {
+					return Flux.from(frames).then();
+				}
+
+				@Override
+				public Flux<Frame> receive() {
+					return Flux.just(keepAlive);
+				}
+
+				@Override
+				public Mono<Void> onClose() {
+					return closed;
+				}
+
+				@Override
+				public void dispose() {
+					closed.onComplete();
+				}
+
+				@Override
+				public boolean isDisposed() {
+					return closed.isTerminated();
+				}
+			});
+		assertThat(this.registry.get("rsocket.connections").tag("side", "server").gauge().value()).isEqualTo(1);
+		connection.receive().blockLast();
+		connection.sendOne(keepAlive).block();
+		for (String direction : new String[]{"in", "out"}) {
+			assertThat(this.registry.get("rsocket.frames").tags("direction", direction, "type", "KEEPALIVE").counter().count())
+				.isEqualTo(1);
+			assertThat(this.registry.get("rsocket.bytes").tag("direction", direction).counter().count())
+				.isEqualTo(keepAlive.content().readableBytes());
+		}
+		connection.dispose();
+		assertThat(this.registry.get("rsocket.connections").gauge().value()).isZero();
+		keepAlive.release();
+	}
+}